@@ -4,7 +4,6 @@
 package com.reportmill.base;
 import snap.util.Convert;
 import snap.util.SnapUtils;
-import java.text.*;
 import java.util.Date;
 
 /**
@@ -12,8 +11,8 @@ import java.util.Date;
  */
 public class DataUtils {
 
-    // DateFormat for toString(date)
-    static SimpleDateFormat  _dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    // Date pattern for toString(date)
+    static final String  DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
 
     /**
      * Converts a given value to a given type.
@@ -38,6 +37,13 @@ public class DataUtils {
             // Remove grouping (thousands) separator
             //if(aValue instanceof String) aValue = RMStringUtils.delete((String)aValue, _groupingSeparator);
 
+            // If plain decimal string, use fast parse
+            if (aValue instanceof String) {
+                Number number = RMValueParser.parseNumber((String) aValue, aNumberType);
+                if (number != null)
+                    return number;
+            }
+
             // Do normal conversion
             switch (aNumberType) {
                 case Byte:
@@ -57,7 +63,7 @@ public class DataUtils {
 
         // Handle Date conversions
         if (aType == Property.Type.Date)
-            return Convert.getDate(aValue);
+            return aValue instanceof String ? RMValueParser.parseDate((String) aValue) : Convert.getDate(aValue);
 
         // Handle Binary conversion
         if (aType == Property.Type.Binary)
@@ -72,7 +78,7 @@ public class DataUtils {
      */
     public static String toString(Date aDate)
     {
-        return _dateFormat.format(aDate);
+        return RMValueParser.formatDate(aDate, DATE_PATTERN);
     }
 
     /**
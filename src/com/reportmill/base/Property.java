@@ -2,7 +2,6 @@
  * Copyright (c) 2010, ReportMill Software. All rights reserved.
  */
 package com.reportmill.base;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import snap.util.*;
 
@@ -153,22 +152,16 @@ public class Property implements Comparable<Object>, XMLArchiver.Archivable {
         // Handle null, empty string or Type already String
         if (aSample == null || aSample.length() == 0 || getType() == Type.String) return;
 
-        // If type still assumed Date, try two common date formats and return if either work, otherwise change to Number
+        // If type still assumed Date, return if sample is date (ISO-8601 or common format), otherwise change to Number
         if (getType() == Type.Date) {
-            try { new SimpleDateFormat("yyyy-MM-dd'T'hh:mm:ss").parse(aSample); return; }
-            catch (Exception e) { }
-            try { new SimpleDateFormat("yyyy-MM-dd").parse(aSample); return; }
-            catch (Exception e) {
-                setType(Type.Number);
-            }
+            if (RMValueParser.isDate(aSample)) return;
+            setType(Type.Number);
         }
 
-        // If type still assumed Number, try common number format and return if it works, otherwise change to String
+        // If type still assumed Number, return if sample is number, otherwise change to String
         if (getType() == Type.Number) {
-            try { Float.parseFloat(aSample); return; }
-            catch (Exception e) {
-                setType(Type.String);
-            }
+            if (RMValueParser.isNumber(aSample)) return;
+            setType(Type.String);
         }
     }
 
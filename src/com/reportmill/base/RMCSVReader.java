@@ -0,0 +1,605 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.base;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import snap.util.*;
+import snap.web.WebURL;
+
+/**
+ * This class creates a dataset of lightweight records from a CSV (or other delimited text) source:
+ * <p><blockquote><pre>
+ *   Map dataset = new RMCSVReader().readObject("/tmp/Sales.csv"); // Returns map of "Sales" to list of records
+ *   RMDocument report = template.generateReport(dataset);
+ * </pre></blockquote><p>
+ * Local files are memory-mapped and records are split directly on the mapped bytes, so only String and Date fields
+ * allocate. The first line is expected to be a header. If no schema is provided, one is inferred from a sample.
+ */
+public class RMCSVReader {
+
+    // The name of the dataset (and record entity)
+    String _name;
+
+    // The schema of the read data (either provided to readObject or inferred from a sample of records)
+    Schema _schema;
+
+    // The field delimiter
+    char _delimiter = ',';
+
+    // The number of records sampled to infer column types
+    int _sampleSize = 200;
+
+    // The bytes currently available (the whole source or a mapped window of the file)
+    ByteBuffer _buf;
+
+    // The file channel (if source is local file) and the file offset and length of current window
+    FileChannel _channel;
+    long _winStart, _length;
+
+    // Window relative start/end of fields in last scanned record, whether field has escaped quotes and field count
+    int _fieldStarts[] = new int[64], _fieldEnds[] = new int[64];
+    boolean _fieldEscaped[] = new boolean[64];
+    int _fieldCount;
+
+    // A scratch array for decoding field bytes
+    byte _scratch[] = new byte[256];
+
+    // The pool for repeated values in current load
+    RMValuePool _pool;
+
+    // The maximum number of bytes mapped at once
+    private static final long MAP_WINDOW_MAX = 1L << 30;
+
+    /**
+     * Creates an uninitialized reader.
+     */
+    public RMCSVReader()
+    {
+    }
+
+    /**
+     * Returns the name of the dataset (defaults to the source filename).
+     */
+    public String getName()  { return _name; }
+
+    /**
+     * Sets the name of the dataset.
+     */
+    public void setName(String aName)  { _name = aName; }
+
+    /**
+     * Returns the field delimiter.
+     */
+    public char getDelimiter()  { return _delimiter; }
+
+    /**
+     * Sets the field delimiter (e.g., ',', '\t', '|').
+     */
+    public void setDelimiter(char aChar)  { _delimiter = aChar; }
+
+    /**
+     * Returns the number of records sampled to infer column types.
+     */
+    public int getSampleSize()  { return _sampleSize; }
+
+    /**
+     * Sets the number of records sampled to infer column types.
+     */
+    public void setSampleSize(int aValue)  { _sampleSize = aValue; }
+
+    /**
+     * Returns the schema of the data read (the root entity has a to-many relation to the record entity).
+     */
+    public Schema getSchema()  { return _schema; }
+
+    /**
+     * Returns a map of dataset name to list of records loaded from the given CSV source.
+     */
+    public Map readObject(Object aSource)
+    {
+        return readObject(aSource, null);
+    }
+
+    /**
+     * Returns a map of dataset name to list of records loaded from the given CSV source with the given schema.
+     */
+    public Map readObject(Object aSource, Schema aSchema)
+    {
+        // Get name from source if not set
+        if (_name == null) {
+            WebURL url = aSource instanceof byte[] ? null : WebURL.getURL(aSource);
+            _name = url != null ? url.getFilenameSimple() : "Records";
+        }
+
+        // Open source (memory map if local file), read records and close
+        try {
+            _pool = new RMValuePool();
+            open(aSource);
+            if (_buf == null)
+                return null;
+            List<Record> records = readRecords(aSchema);
+            Map map = new LinkedHashMap();
+            map.put(_name, records);
+            return map;
+        }
+        catch (IOException e) { throw new RuntimeException(e); }
+        finally { close(); _pool = null; }
+    }
+
+    /**
+     * Reads the header, gets schema (inferring if needed) and reads records.
+     */
+    private List<Record> readRecords(Schema aSchema)
+    {
+        // Read header line
+        long pos = scanRecord(0);
+        String names[] = new String[_fieldCount];
+        for (int i = 0; i < _fieldCount; i++)
+            names[i] = getFieldString(i);
+        long dataStart = pos;
+
+        // Get schema: use given schema or infer from sample
+        _schema = aSchema != null ? aSchema : createSchema(names, dataStart);
+        Entity entity = _schema.getEntity(_name);
+        if (entity == null)
+            entity = _schema.getRootEntity();
+
+        // Get properties for columns
+        Property props[] = new Property[names.length];
+        for (int i = 0; i < names.length; i++)
+            props[i] = entity.getProperty(names[i].trim().replace(" ", ""));
+
+        // Create shared header and list
+        Header header = new Header(props, names);
+        List<Record> records = new ArrayList<>();
+
+        // Iterate over records and add
+        for (pos = dataStart; pos < _length; ) {
+            pos = scanRecord(pos);
+            if (_fieldCount == 1 && _fieldStarts[0] == _fieldEnds[0])
+                continue;
+            Object values[] = new Object[props.length];
+            for (int i = 0, iMax = Math.min(_fieldCount, props.length); i < iMax; i++)
+                values[i] = _pool.intern(names[i], getFieldValue(i, props[i]));
+            records.add(new Record(header, values));
+        }
+
+        // Return records
+        return records;
+    }
+
+    /**
+     * Creates a schema for given column names by sampling the records that start at given position.
+     */
+    private Schema createSchema(String theNames[], long aStart)
+    {
+        // Create entity with a property for each column: start with type Date and demote with samples (as in XML)
+        Entity entity = new Entity(_name);
+        Property props[] = new Property[theNames.length];
+        boolean integral[] = new boolean[theNames.length], sampled[] = new boolean[theNames.length];
+        for (int i = 0; i < theNames.length; i++) {
+            entity.addProperty(props[i] = new Property(theNames[i], Property.Type.Date));
+            integral[i] = true;
+        }
+
+        // Iterate over sample records and update property types
+        long pos = aStart;
+        for (int count = 0; count < _sampleSize && pos < _length; count++) {
+            pos = scanRecord(pos);
+            for (int i = 0, iMax = Math.min(_fieldCount, props.length); i < iMax; i++) {
+                String str = getFieldString(i);
+                props[i].setTypeFromSample(str);
+                if (str.length() > 0) sampled[i] = true;
+                if (integral[i] && str.length() > 0 && getFieldLong(i) == null)
+                    integral[i] = false;
+            }
+        }
+
+        // Reset columns with no samples to String and narrow number types that only saw integral values
+        for (int i = 0; i < props.length; i++) {
+            if (!sampled[i])
+                props[i].setType(Property.Type.String);
+            else if (props[i].getType() == Property.Type.Number && integral[i])
+                props[i].setNumberType(Property.NumberType.Long);
+        }
+
+        // Create schema with root entity that has to-many relation to record entity
+        Schema schema = new Schema("Root");
+        schema.addEntity(entity);
+        Entity rootEntity = new Entity("Root");
+        Property relation = new Property(_name, Property.Type.RelationList);
+        relation.setRelationEntity(entity);
+        rootEntity.addProperty(relation);
+        schema.addEntity(rootEntity, 0);
+        return schema;
+    }
+
+    /**
+     * Opens the given source, memory-mapping it if it is a local file.
+     */
+    private void open(Object aSource) throws IOException
+    {
+        // If source is local file, map first window
+        File file = getJavaFile(aSource);
+        if (file != null) {
+            _channel = new RandomAccessFile(file, "r").getChannel();
+            _length = _channel.size();
+            mapWindow(0);
+            return;
+        }
+
+        // Otherwise, wrap bytes
+        byte bytes[] = SnapUtils.getBytes(aSource);
+        if (bytes != null) {
+            _buf = ByteBuffer.wrap(bytes);
+            _length = bytes.length;
+        }
+    }
+
+    /**
+     * Closes the file channel, if open.
+     */
+    private void close()
+    {
+        if (_channel != null)
+            try { _channel.close(); }
+            catch (IOException e) { }
+        _channel = null;
+        _buf = null;
+    }
+
+    /**
+     * Maps the window of the file starting at given file offset.
+     */
+    private void mapWindow(long aStart)
+    {
+        long size = Math.min(MAP_WINDOW_MAX, _length - aStart);
+        try { _buf = _channel.map(FileChannel.MapMode.READ_ONLY, aStart, size); }
+        catch (IOException e) { throw new RuntimeException(e); }
+        _winStart = aStart;
+    }
+
+    /**
+     * Returns whether current window ends before end of data.
+     */
+    private boolean isWindowPartial()
+    {
+        return _winStart + _buf.limit() < _length;
+    }
+
+    /**
+     * Scans the record at given data offset, loading field starts/ends. Returns offset of next record.
+     */
+    private long scanRecord(long aPos)
+    {
+        // If position is before or near end of current window, remap window at position
+        if (_channel != null && (aPos < _winStart || aPos >= _winStart + _buf.limit()))
+            mapWindow(aPos);
+
+        // Scan record in window - if it runs off end of partial window, remap window at record start and rescan
+        int end = scanRecordInWindow((int) (aPos - _winStart));
+        if (end < 0 && _channel != null && _winStart != aPos) {
+            mapWindow(aPos);
+            end = scanRecordInWindow(0);
+        }
+        if (end < 0)
+            throw new RuntimeException("RMCSVReader: Record too large at offset " + aPos);
+        return _winStart + end;
+    }
+
+    /**
+     * Scans a record at given window index. Returns index after record terminator or -1 if window ended first.
+     */
+    private int scanRecordInWindow(int anIndex)
+    {
+        ByteBuffer buf = _buf;
+        int limit = buf.limit();
+        byte delim = (byte) _delimiter;
+        boolean partial = isWindowPartial();
+        int i = anIndex;
+        _fieldCount = 0;
+
+        // Iterate over fields
+        while (true) {
+
+            // Handle quoted field: scan to closing quote, noting escaped quotes
+            int start = i, end;
+            boolean escaped = false;
+            if (i < limit && buf.get(i) == '"') {
+                start = ++i;
+                while (true) {
+                    if (i >= limit) {
+                        if (partial) return -1;
+                        end = i;
+                        break;
+                    }
+                    if (buf.get(i) == '"') {
+                        if (i + 1 < limit && buf.get(i + 1) == '"') { escaped = true; i += 2; continue; }
+                        if (i + 1 >= limit && partial) return -1;
+                        end = i++;
+                        break;
+                    }
+                    i++;
+                }
+                while (i < limit && buf.get(i) != delim && buf.get(i) != '\n' && buf.get(i) != '\r') i++;
+            }
+
+            // Handle plain field: scan to delimiter or line end
+            else {
+                while (i < limit && buf.get(i) != delim && buf.get(i) != '\n' && buf.get(i) != '\r') i++;
+                end = i;
+            }
+
+            // Add field
+            addField(start, end, escaped);
+
+            // If delimiter, continue to next field
+            if (i < limit && buf.get(i) == delim) {
+                i++;
+                continue;
+            }
+
+            // If at end of partial window, bail
+            if (i >= limit)
+                return partial ? -1 : i;
+
+            // Skip line terminator (\n, \r\n or \r) and return
+            if (buf.get(i) == '\r') {
+                if (i + 1 >= limit && partial) return -1;
+                if (i + 1 < limit && buf.get(i + 1) == '\n') i++;
+            }
+            return i + 1;
+        }
+    }
+
+    /**
+     * Adds a field for given window relative start/end.
+     */
+    private void addField(int aStart, int anEnd, boolean isEscaped)
+    {
+        if (_fieldCount == _fieldStarts.length) {
+            _fieldStarts = Arrays.copyOf(_fieldStarts, _fieldCount * 2);
+            _fieldEnds = Arrays.copyOf(_fieldEnds, _fieldCount * 2);
+            _fieldEscaped = Arrays.copyOf(_fieldEscaped, _fieldCount * 2);
+        }
+        _fieldStarts[_fieldCount] = aStart;
+        _fieldEnds[_fieldCount] = anEnd;
+        _fieldEscaped[_fieldCount++] = isEscaped;
+    }
+
+    /**
+     * Returns the value for field at given index converted for given property.
+     */
+    private Object getFieldValue(int anIndex, Property aProp)
+    {
+        // If empty, return null
+        if (_fieldStarts[anIndex] == _fieldEnds[anIndex])
+            return null;
+
+        // If no property, return string
+        if (aProp == null)
+            return getFieldString(anIndex);
+
+        // Handle Numbers: Try to parse straight from bytes
+        if (aProp.getType() == Property.Type.Number) {
+            Property.NumberType numType = aProp.getNumberType();
+            if (numType == Property.NumberType.Long || numType == Property.NumberType.Integer) {
+                Long value = getFieldLong(anIndex);
+                if (value != null)
+                    return numType == Property.NumberType.Long ? value : (Object) value.intValue();
+            }
+            else if (numType == Property.NumberType.Double) {
+                double value = getFieldDouble(anIndex);
+                if (!Double.isNaN(value))
+                    return value;
+            }
+        }
+
+        // Everything else: Get string and convert
+        return aProp.convertValue(getFieldString(anIndex));
+    }
+
+    /**
+     * Returns the string for field at given index.
+     */
+    private String getFieldString(int anIndex)
+    {
+        // Get field bytes into scratch array
+        int start = _fieldStarts[anIndex], len = _fieldEnds[anIndex] - start;
+        if (len == 0)
+            return "";
+        if (len > _scratch.length)
+            _scratch = new byte[Math.max(len, _scratch.length * 2)];
+        _buf.position(start);
+        _buf.get(_scratch, 0, len);
+
+        // Create string (un-escaping double quotes if needed)
+        String str = new String(_scratch, 0, len, StandardCharsets.UTF_8);
+        if (_fieldEscaped[anIndex])
+            str = str.replace("\"\"", "\"");
+        return str;
+    }
+
+    /**
+     * Returns the field at given index as long, parsed straight from bytes (or null if not plain integer).
+     */
+    private Long getFieldLong(int anIndex)
+    {
+        int i = _fieldStarts[anIndex], end = _fieldEnds[anIndex];
+        boolean neg = i < end && _buf.get(i) == '-';
+        if (neg || i < end && _buf.get(i) == '+') i++;
+        if (i == end || end - i > 18)
+            return null;
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = _buf.get(i) - '0';
+            if (digit < 0 || digit > 9)
+                return null;
+            value = value * 10 + digit;
+        }
+        return neg ? -value : value;
+    }
+
+    /**
+     * Returns the field at given index as double, parsed straight from bytes (or NaN if not plain decimal).
+     */
+    private double getFieldDouble(int anIndex)
+    {
+        // Get sign
+        int i = _fieldStarts[anIndex], end = _fieldEnds[anIndex];
+        boolean neg = i < end && _buf.get(i) == '-';
+        if (neg || i < end && _buf.get(i) == '+') i++;
+
+        // Read digits into mantissa, counting fraction digits (bail if too many digits for exact double)
+        long mantissa = 0;
+        int digits = 0, fractionDigits = -1;
+        for (; i < end; i++) {
+            byte c = _buf.get(i);
+            if (c == '.' && fractionDigits < 0) { fractionDigits = 0; continue; }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9 || ++digits > 15)
+                return Double.NaN;
+            mantissa = mantissa * 10 + digit;
+            if (fractionDigits >= 0) fractionDigits++;
+        }
+
+        // Return value (single division of exact values is correctly rounded)
+        if (digits == 0)
+            return Double.NaN;
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return neg ? -value : value;
+    }
+
+    // Powers of ten exactly representable as double
+    private static final double POWERS_OF_TEN[] = { 1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15 };
+
+    /**
+     * Returns a local java file for given source, if available.
+     */
+    private static File getJavaFile(Object aSource)
+    {
+        if (aSource instanceof byte[] || aSource instanceof InputStream)
+            return null;
+        File file = aSource instanceof File ? (File) aSource : null;
+        if (file == null) {
+            WebURL url = WebURL.getURL(aSource);
+            try { file = url != null && "file".equals(url.getScheme()) ? url.getJavaFile() : null; }
+            catch (Exception e) { }
+        }
+        return file != null && file.isFile() ? file : null;
+    }
+
+    /**
+     * The column layout shared by all records from a source.
+     */
+    public static class Header {
+
+        // The properties and names of the columns
+        Property _props[];
+        String _names[];
+
+        // A map of key to column index (populated as keys are encountered)
+        Map<String,Integer> _indexes = new ConcurrentHashMap<>();
+
+        /**
+         * Creates a new header for given properties and column names.
+         */
+        public Header(Property theProps[], String theNames[])
+        {
+            _props = theProps;
+            _names = theNames;
+        }
+
+        /**
+         * Returns the number of columns.
+         */
+        public int getColumnCount()  { return _names.length; }
+
+        /**
+         * Returns the column name at given index.
+         */
+        public String getColumnName(int anIndex)  { return _names[anIndex]; }
+
+        /**
+         * Returns the column index for given key (or -1 if not found).
+         */
+        public int indexOf(String aKey)
+        {
+            // Get cached index
+            Integer index = _indexes.get(aKey);
+            if (index != null)
+                return index;
+
+            // Find column with name or property standard name that matches key
+            String std = Key.getStandard(aKey);
+            int ind = -1;
+            for (int i = 0; i < _names.length && ind < 0; i++) {
+                if (_names[i].equals(aKey) || _props[i] != null && std.equalsIgnoreCase(_props[i].getStandardName()))
+                    ind = i;
+            }
+
+            // Cache and return
+            _indexes.put(aKey, ind);
+            return ind;
+        }
+    }
+
+    /**
+     * A lightweight record holding the typed column values of a row.
+     */
+    public static class Record implements RMKey.Get {
+
+        // The header and values
+        Header _header;
+        Object _values[];
+
+        /**
+         * Creates a new record for given header and values.
+         */
+        public Record(Header aHeader, Object theValues[])
+        {
+            _header = aHeader;
+            _values = theValues;
+        }
+
+        /**
+         * Returns the header.
+         */
+        public Header getHeader()  { return _header; }
+
+        /**
+         * Returns the value at given column index.
+         */
+        public Object getValue(int anIndex)  { return _values[anIndex]; }
+
+        /**
+         * RMKey.Get implementation to return column value for key.
+         */
+        public Object getKeyValue(String aKey)
+        {
+            int index = _header.indexOf(aKey);
+            if (index >= 0)
+                return _values[index];
+            return "this".equals(aKey) ? this : null;
+        }
+
+        /**
+         * Returns a string representation of record.
+         */
+        public String toString()
+        {
+            StringBuffer sb = new StringBuffer("Record { ");
+            for (int i = 0; i < _values.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(_header.getColumnName(i)).append('=').append(_values[i]);
+            }
+            return sb.append(" }").toString();
+        }
+    }
+}
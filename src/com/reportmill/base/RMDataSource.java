@@ -2,6 +2,7 @@
  * Copyright (c) 2010, ReportMill Software. All rights reserved.
  */
 package com.reportmill.base;
+import java.io.File;
 import java.util.*;
 import snap.util.*;
 import snap.web.*;
@@ -28,6 +29,12 @@ public class RMDataSource implements XMLArchiver.Archivable {
     // The URL of the document this DataSource belongs to
     private WebURL  _docURL;
 
+    // Whether datasets are loaded through the process-wide shared dataset cache
+    private static boolean  _sharedCacheEnabled;
+
+    // The directory for binary dataset snapshots (null if snapshots are off)
+    private static File  _snapshotDir;
+
     /**
      * Constructor.
      */
@@ -81,26 +88,133 @@ public class RMDataSource implements XMLArchiver.Archivable {
             return _dataset = new HashMap<>();
         }
 
-        // Get bytes (if null, set stuff and bail)
+        // Reload file to get current ModTime (and clear any stale bytes)
         datasetFile.reload();
-        byte[] bytes = datasetFile.getBytes();
-        if (bytes == null) {
+
+        // Get parsed dataset: from shared cache if enabled, otherwise read directly
+        Schema customSchema = _customSchema ? _schema : null;
+        RMDatasetCache.Entry entry;
+        if (isSharedCacheEnabled()) {
+            String key = RMDatasetCache.getKey(datasetFile.getUrlString(), datasetFile.getModTime(), customSchema);
+            entry = RMDatasetCache.getShared().getEntry(key, () -> readDataset(datasetFile, customSchema));
+        }
+        else entry = readDataset(datasetFile, customSchema);
+
+        // If no dataset (bytes not found), set stuff and bail
+        if (entry == null) {
             _schema = new Schema("root");
             _schema.addEntity(new Entity("root"));
             return _dataset = new HashMap<>();
         }
 
+        // If schema not custom, set to reader schema (copy if shared, since editor can modify it)
+        if (!_customSchema)
+            _schema = isSharedCacheEnabled() ? copySchema(entry.getSchema()) : entry.getSchema();
+
+        // Return
+        return _dataset = entry.getDataset();
+    }
+
+    /**
+     * Reads the dataset and schema for given dataset file and custom schema (can be null), using binary snapshot if
+     * snapshot directory is set, dataset is a local file and schema is not custom.
+     */
+    private static RMDatasetCache.Entry readDataset(WebFile aFile, Schema aSchema)
+    {
+        // If no snapshot directory, local file or if custom schema, just parse dataset
+        File snapDir = getSnapshotDir();
+        File javaFile = aFile.getJavaFile();
+        if (snapDir == null || javaFile == null || !javaFile.isFile() || aSchema != null)
+            return parseDataset(aFile, aSchema);
+
+        // Get snapshot file (named for dataset and hash of dataset path) and try to read
+        String snapName = aFile.getSimpleName() + '-' + Integer.toHexString(javaFile.getAbsolutePath().hashCode()) + ".rmds";
+        File snapFile = new File(snapDir, snapName);
+        RMDatasetCache.Entry entry = RMDatasetSnapshot.read(snapFile, javaFile);
+        if (entry != null)
+            return entry;
+
+        // Parse dataset and write snapshot
+        entry = parseDataset(aFile, aSchema);
+        if (entry != null && entry.getDataset() != null) {
+            try {
+                snapDir.mkdirs();
+                RMDatasetSnapshot.write(snapFile, entry.getDataset(), entry.getSchema(), javaFile);
+            }
+            catch (Exception e) { System.err.println("RMDataSource.readDataset: Failed to write snapshot: " + e); }
+        }
+
+        // Return
+        return entry;
+    }
+
+    /**
+     * Parses the dataset and schema for given dataset file and custom schema (can be null).
+     */
+    private static RMDatasetCache.Entry parseDataset(WebFile aFile, Schema aSchema)
+    {
+        // If CSV file, read with CSV reader (memory-mapped if local file) and return
+        if (StringUtils.endsWithIC(aFile.getName(), ".csv")) {
+            RMCSVReader reader = new RMCSVReader();
+            reader.setName(aFile.getSimpleName());
+            File javaFile = aFile.getJavaFile();
+            Object source = javaFile != null && javaFile.isFile() ? javaFile : aFile.getBytes();
+            long size = source instanceof File ? ((File) source).length() : aFile.getSize();
+            Map<String,Object> dataset = reader.readObject(source, aSchema);
+            return new RMDatasetCache.Entry(dataset, reader.getSchema(), size * RMDatasetCache.SOURCE_BYTE_WEIGHT);
+        }
+
+        // Get bytes (if null, just return)
+        byte[] bytes = aFile.getBytes();
+        if (bytes == null)
+            return null;
+
         // Create XML reader and read dataset
         RMXMLReader reader = new RMXMLReader();
-        try { _dataset = reader.readObject(bytes, _customSchema ? _schema : null); }
+        Map<String,Object> dataset;
+        try { dataset = reader.readObject(bytes, aSchema); }
         catch (Throwable e) { throw new RuntimeException(e); }
 
-        // If schema is null, set to reader schema
-        if (!_customSchema)
-            _schema = reader.getSchema();
-
         // Return
-        return _dataset;
+        return new RMDatasetCache.Entry(dataset, reader.getSchema(), bytes.length * RMDatasetCache.SOURCE_BYTE_WEIGHT);
+    }
+
+    /**
+     * Returns a copy of given schema.
+     */
+    private static Schema copySchema(Schema aSchema)
+    {
+        if (aSchema == null) return null;
+        XMLElement schemaXML = aSchema.toXML(null);
+        return new Schema().fromXML(null, schemaXML);
+    }
+
+    /**
+     * Returns whether datasets are loaded through the process-wide shared dataset cache.
+     */
+    public static boolean isSharedCacheEnabled()  { return _sharedCacheEnabled; }
+
+    /**
+     * Sets whether datasets are loaded through the process-wide shared dataset cache (off by default). Only the top level
+     * of a cached dataset is unmodifiable: its records are shared mutable objects, so nothing that uses datasets from
+     * datasources may modify them while this is on (see RMDatasetCache).
+     */
+    public static void setSharedCacheEnabled(boolean aValue)
+    {
+        _sharedCacheEnabled = aValue;
+    }
+
+    /**
+     * Returns the directory for binary dataset snapshots (null if snapshots are off).
+     */
+    public static File getSnapshotDir()  { return _snapshotDir; }
+
+    /**
+     * Sets the directory for binary dataset snapshots (null to turn snapshots off).
+     */
+    public static void setSnapshotDir(File aDir)
+    {
+        _snapshotDir = aDir;
     }
 
     /**
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.base;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * This class is a process-wide, size-bounded cache of parsed datasets, so that many templates and RMDataSource
+ * instances that reference the same dataset file share one parse. Entries are keyed by dataset URL, source
+ * last-modified time and custom schema (if any), so a changed file is simply a new key.
+ *
+ * Cached datasets are shared across threads: only the top level map and its lists are unmodifiable - nested records
+ * (and their lists) are the parsed objects themselves and are still mutable, so code that uses cached datasets must
+ * treat them as read-only. This is why RMDataSource doesn't use the shared cache unless it is turned on (see
+ * RMDataSource.setSharedCacheEnabled()). Entries are evicted least-recently-used first once the sum of
+ * their estimated weights exceeds the max weight.
+ */
+public class RMDatasetCache {
+
+    // The entries, in access order
+    private LinkedHashMap<String,Entry>  _entries = new LinkedHashMap<>(16, .75f, true);
+
+    // The max weight of all entries and current weight
+    private long  _maxWeight;
+    private long  _weight;
+
+    // The hit, miss and eviction counts
+    private long  _hitCount, _missCount, _evictionCount;
+
+    // The shared cache
+    private static RMDatasetCache  _shared = new RMDatasetCache(Runtime.getRuntime().maxMemory() / 4);
+
+    // The estimated heap bytes per source byte of a parsed dataset
+    public static final int SOURCE_BYTE_WEIGHT = 4;
+
+    /**
+     * Creates a new cache with given max weight (estimated bytes).
+     */
+    public RMDatasetCache(long aMaxWeight)
+    {
+        _maxWeight = aMaxWeight;
+    }
+
+    /**
+     * Returns the shared cache.
+     */
+    public static RMDatasetCache getShared()  { return _shared; }
+
+    /**
+     * Returns the max weight (estimated bytes) of all entries.
+     */
+    public synchronized long getMaxWeight()  { return _maxWeight; }
+
+    /**
+     * Sets the max weight (estimated bytes) of all entries.
+     */
+    public synchronized void setMaxWeight(long aValue)
+    {
+        _maxWeight = aValue;
+        evict();
+    }
+
+    /**
+     * Returns the current weight (estimated bytes) of all entries.
+     */
+    public synchronized long getWeight()  { return _weight; }
+
+    /**
+     * Returns the number of entries.
+     */
+    public synchronized int getEntryCount()  { return _entries.size(); }
+
+    /**
+     * Returns the number of requests satisfied by an already loaded entry.
+     */
+    public synchronized long getHitCount()  { return _hitCount; }
+
+    /**
+     * Returns the number of requests that required a load.
+     */
+    public synchronized long getMissCount()  { return _missCount; }
+
+    /**
+     * Returns the number of entries evicted to stay under max weight.
+     */
+    public synchronized long getEvictionCount()  { return _evictionCount; }
+
+    /**
+     * Returns the cache key for given URL string, modified time and custom schema (can be null).
+     */
+    public static String getKey(String aURL, long aModTime, Schema aSchema)
+    {
+        String key = aURL + '@' + aModTime;
+        if (aSchema != null)
+            key += '#' + aSchema.toXML(null).getString();
+        return key;
+    }
+
+    /**
+     * Returns the entry for given key, using given loader (called at most once per key) if not already loaded.
+     * Returns null (and caches nothing) if loader returns null.
+     */
+    public Entry getEntry(String aKey, Supplier<Entry> aLoader)
+    {
+        // Get entry for key (create and add if missing)
+        Entry entry;
+        synchronized (this) {
+            entry = _entries.get(aKey);
+            if (entry == null)
+                _entries.put(aKey, entry = new Entry());
+        }
+
+        // Load entry if needed (other threads asking for same key wait here instead of parsing again)
+        synchronized (entry) {
+
+            // If loaded, update hit count and return entry
+            if (entry._loaded) {
+                synchronized (this) { _hitCount++; }
+                return entry;
+            }
+
+            // Load entry (if load fails or finds nothing, remove placeholder entry so next request tries again)
+            try {
+                Entry loaded = aLoader.get();
+                if (loaded == null) {
+                    synchronized (this) {
+                        _missCount++;
+                        _entries.remove(aKey, entry);
+                    }
+                    return null;
+                }
+
+                // Get read-only dataset
+                Map<String,Object> dataset = loaded._dataset != null ?
+                    Collections.unmodifiableMap(getReadOnly(loaded._dataset)) : null;
+
+                // Install loaded dataset, schema and weight, update miss count and weight, and evict if needed
+                synchronized (this) {
+                    entry._dataset = dataset;
+                    entry._schema = loaded._schema;
+                    entry._weight = loaded._weight;
+                    entry._loaded = true;
+                    _missCount++;
+                    if (_entries.get(aKey) == entry) {
+                        _weight += entry._weight;
+                        evict();
+                    }
+                }
+            }
+
+            // If load failed, remove placeholder entry and rethrow
+            catch (RuntimeException e) {
+                synchronized (this) { _entries.remove(aKey, entry); }
+                throw e;
+            }
+        }
+
+        // Return entry
+        return entry;
+    }
+
+    /**
+     * Removes entries least-recently-used first until weight is under max weight (always keeps most recent).
+     */
+    private void evict()
+    {
+        for (Iterator<Entry> iter = _entries.values().iterator(); _weight > _maxWeight && _entries.size() > 1; ) {
+            Entry entry = iter.next();
+            if (!entry._loaded) continue;
+            iter.remove();
+            _weight -= entry._weight;
+            _evictionCount++;
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear()
+    {
+        _entries.clear();
+        _weight = 0;
+    }
+
+    /**
+     * Returns a copy of given dataset with any top level lists made unmodifiable (nested records are not copied and
+     * stay mutable).
+     */
+    private static Map<String,Object> getReadOnly(Map<String,Object> aMap)
+    {
+        Map<String,Object> map = new LinkedHashMap<>(aMap);
+        for (Map.Entry<String,Object> entry : map.entrySet())
+            if (entry.getValue() instanceof List)
+                entry.setValue(Collections.unmodifiableList((List) entry.getValue()));
+        return map;
+    }
+
+    /**
+     * Returns a string representation of cache (with metrics).
+     */
+    public String toString()
+    {
+        return String.format("RMDatasetCache { Entries=%d, Weight=%d, MaxWeight=%d, Hits=%d, Misses=%d, Evictions=%d }",
+                getEntryCount(), getWeight(), getMaxWeight(), getHitCount(), getMissCount(), getEvictionCount());
+    }
+
+    /**
+     * An entry in the cache: a parsed dataset, its schema and estimated weight.
+     */
+    public static class Entry {
+
+        // The dataset and schema
+        Map<String,Object>  _dataset;
+        Schema  _schema;
+
+        // The estimated weight in bytes
+        long  _weight;
+
+        // Whether entry has been loaded
+        boolean  _loaded;
+
+        /**
+         * Constructor used by cache.
+         */
+        private Entry()  { }
+
+        /**
+         * Constructor for given dataset, schema and weight.
+         */
+        public Entry(Map<String,Object> aDataset, Schema aSchema, long aWeight)
+        {
+            _dataset = aDataset;
+            _schema = aSchema;
+            _weight = aWeight;
+        }
+
+        /**
+         * Returns the dataset (shared - should not be modified).
+         */
+        public Map<String,Object> getDataset()  { return _dataset; }
+
+        /**
+         * Returns the schema (shared - should not be modified).
+         */
+        public Schema getSchema()  { return _schema; }
+
+        /**
+         * Returns the estimated weight in bytes.
+         */
+        public long getWeight()  { return _weight; }
+    }
+}
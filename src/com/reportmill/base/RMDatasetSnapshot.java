@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.base;
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import snap.util.XMLElement;
+
+/**
+ * This class writes and reads a compact binary snapshot of a parsed dataset (and its schema), so a large dataset only
+ * needs to be parsed once per source change instead of once per process start:
+ * <p><blockquote><pre>
+ *   RMDatasetSnapshot.write(snapshotFile, dataset, schema, sourceFile);
+ *   RMDatasetCache.Entry entry = RMDatasetSnapshot.read(snapshotFile, sourceFile); // Null if stale or missing
+ * </pre></blockquote><p>
+ * The snapshot records the source file modification time, length and CRC32, and read() returns null if any differ.
+ * Values are typed and length-prefixed, strings go through a string table (each distinct string is written once),
+ * and shared maps/lists (like the unique entity maps from RMXMLReader) are written once and then back-referenced.
+ * Snapshots are read with a memory-mapped buffer.
+ */
+public class RMDatasetSnapshot {
+
+    // The string table and object ids (write) or string and object lists (read)
+    private Map<String,Integer>  _stringIds;
+    private Map<Object,Integer>  _objectIds;
+    private List<String>  _strings;
+    private List<Object>  _objects;
+
+    // The mapped buffer (read)
+    private ByteBuffer  _buf;
+
+    // Constants for file header
+    private static final int MAGIC = 0x524D4453; // "RMDS"
+    private static final int VERSION = 1;
+
+    // Constants for value tags
+    private static final byte NULL = 0, STRING_DEF = 1, STRING_REF = 2, INT = 3, LONG = 4, DOUBLE = 5, FLOAT = 6;
+    private static final byte DECIMAL = 7, TRUE = 8, FALSE = 9, DATE = 10, BYTES = 11;
+    private static final byte MAP = 12, LIST = 13, HEADER = 14, RECORD = 15, OBJECT_REF = 16;
+
+    /**
+     * Writes a snapshot of given dataset and schema for given source file.
+     */
+    public static void write(File aFile, Map<String,Object> aDataset, Schema aSchema, File aSourceFile) throws IOException
+    {
+        // Write to temp file in same directory, then move into place (so readers never see partial snapshot)
+        File tempFile = new File(aFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16))) {
+
+            // Write header: magic, version, source mod time, length and hash
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(aSourceFile.lastModified());
+            out.writeLong(aSourceFile.length());
+            out.writeLong(getHash(aSourceFile));
+
+            // Write schema (as length-prefixed schema XML)
+            byte schemaBytes[] = aSchema != null ? aSchema.toXML(null).getBytes() : new byte[0];
+            out.writeInt(schemaBytes.length);
+            out.write(schemaBytes);
+
+            // Write dataset
+            RMDatasetSnapshot writer = new RMDatasetSnapshot();
+            writer._stringIds = new HashMap<>();
+            writer._objectIds = new IdentityHashMap<>();
+            writer.writeValue(out, aDataset);
+        }
+
+        // Move into place
+        try { Files.move(tempFile.toPath(), aFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), aFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads a snapshot for given source file. Returns null if snapshot is missing, invalid or stale.
+     */
+    public static RMDatasetCache.Entry read(File aFile, File aSourceFile)
+    {
+        // If snapshot file missing, just return
+        if (!aFile.isFile())
+            return null;
+
+        // Map snapshot file and read
+        try (FileChannel channel = new RandomAccessFile(aFile, "r").getChannel()) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            // Check header: magic, version, source mod time, length and hash
+            if (buf.remaining() < 32 || buf.getInt() != MAGIC || buf.getInt() != VERSION)
+                return null;
+            if (buf.getLong() != aSourceFile.lastModified() || buf.getLong() != aSourceFile.length())
+                return null;
+            if (buf.getLong() != getHash(aSourceFile))
+                return null;
+
+            // Read schema
+            byte schemaBytes[] = new byte[buf.getInt()];
+            buf.get(schemaBytes);
+            Schema schema = null;
+            if (schemaBytes.length > 0) {
+                XMLElement schemaXML = XMLElement.readFromXMLSource(schemaBytes);
+                schema = new Schema().fromXML(null, schemaXML);
+            }
+
+            // Read dataset
+            RMDatasetSnapshot reader = new RMDatasetSnapshot();
+            reader._buf = buf;
+            reader._strings = new ArrayList<>();
+            reader._objects = new ArrayList<>();
+            Map<String,Object> dataset = (Map<String,Object>) reader.readValue();
+
+            // Return entry (weight is estimated from snapshot size)
+            return new RMDatasetCache.Entry(dataset, schema, channel.size() * RMDatasetCache.SOURCE_BYTE_WEIGHT);
+        }
+
+        // If snapshot is corrupt or can't be read, complain and return null (so caller parses source)
+        catch (Exception e) {
+            System.err.println("RMDatasetSnapshot.read: Failed to read snapshot " + aFile + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the CRC32 hash of given file (computed over memory-mapped file).
+     */
+    public static long getHash(File aFile) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = new RandomAccessFile(aFile, "r").getChannel()) {
+            for (long pos = 0, size = channel.size(); pos < size; ) {
+                long len = Math.min(size - pos, 1 << 30);
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, len));
+                pos += len;
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes a value.
+     */
+    private void writeValue(DataOutputStream out, Object aValue) throws IOException
+    {
+        // Handle null
+        if (aValue == null)
+            out.writeByte(NULL);
+
+        // Handle String
+        else if (aValue instanceof String)
+            writeString(out, (String) aValue);
+
+        // Handle numbers
+        else if (aValue instanceof Integer || aValue instanceof Short || aValue instanceof Byte) {
+            out.writeByte(INT);
+            out.writeInt(((Number) aValue).intValue());
+        }
+        else if (aValue instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) aValue);
+        }
+        else if (aValue instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) aValue);
+        }
+        else if (aValue instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) aValue);
+        }
+        else if (aValue instanceof Number) {
+            out.writeByte(DECIMAL);
+            writeString(out, aValue.toString());
+        }
+
+        // Handle Boolean, Date, byte[]
+        else if (aValue instanceof Boolean)
+            out.writeByte((Boolean) aValue ? TRUE : FALSE);
+        else if (aValue instanceof Date) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) aValue).getTime());
+        }
+        else if (aValue instanceof byte[]) {
+            byte bytes[] = (byte[]) aValue;
+            out.writeByte(BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        // Handle Map, List and CSV Record (back-reference if already written)
+        else if (aValue instanceof Map || aValue instanceof List || aValue instanceof RMCSVReader.Record) {
+
+            // If already written, just write reference
+            Integer id = _objectIds.get(aValue);
+            if (id != null) {
+                out.writeByte(OBJECT_REF);
+                out.writeInt(id);
+            }
+
+            // Otherwise, write (registers object)
+            else if (aValue instanceof Map) writeMap(out, (Map) aValue);
+            else if (aValue instanceof List) writeList(out, (List) aValue);
+            else writeRecord(out, (RMCSVReader.Record) aValue);
+        }
+
+        // Handle anything else as string
+        else writeString(out, aValue.toString());
+    }
+
+    /**
+     * Writes a string (defines string in table on first occurrence, otherwise writes reference).
+     */
+    private void writeString(DataOutputStream out, String aStr) throws IOException
+    {
+        // If string already in table, write reference
+        Integer id = _stringIds.get(aStr);
+        if (id != null) {
+            out.writeByte(STRING_REF);
+            out.writeInt(id);
+            return;
+        }
+
+        // Otherwise add to table and write definition
+        _stringIds.put(aStr, _stringIds.size());
+        byte bytes[] = aStr.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(STRING_DEF);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a map.
+     */
+    private void writeMap(DataOutputStream out, Map<?,?> aMap) throws IOException
+    {
+        _objectIds.put(aMap, _objectIds.size());
+        out.writeByte(MAP);
+        out.writeInt(aMap.size());
+        for (Map.Entry<?,?> entry : aMap.entrySet()) {
+            writeString(out, entry.getKey().toString());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    /**
+     * Writes a list.
+     */
+    private void writeList(DataOutputStream out, List<?> aList) throws IOException
+    {
+        _objectIds.put(aList, _objectIds.size());
+        out.writeByte(LIST);
+        out.writeInt(aList.size());
+        for (Object item : aList)
+            writeValue(out, item);
+    }
+
+    /**
+     * Writes a CSV record (preceded by header the first time it is encountered, otherwise by header reference).
+     */
+    private void writeRecord(DataOutputStream out, RMCSVReader.Record aRecord) throws IOException
+    {
+        // Write header or header reference
+        RMCSVReader.Header header = aRecord.getHeader();
+        Integer id = _objectIds.get(header);
+        if (id != null) {
+            out.writeByte(OBJECT_REF);
+            out.writeInt(id);
+        }
+        else {
+            _objectIds.put(header, _objectIds.size());
+            out.writeByte(HEADER);
+            out.writeInt(header.getColumnCount());
+            for (int i = 0, iMax = header.getColumnCount(); i < iMax; i++)
+                writeString(out, header.getColumnName(i));
+        }
+
+        // Register record and write record values
+        _objectIds.put(aRecord, _objectIds.size());
+        out.writeByte(RECORD);
+        for (int i = 0, iMax = header.getColumnCount(); i < iMax; i++)
+            writeValue(out, aRecord.getValue(i));
+    }
+
+    /**
+     * Reads a value.
+     */
+    private Object readValue()
+    {
+        byte tag = _buf.get();
+        switch (tag) {
+            case NULL: return null;
+            case STRING_DEF: {
+                byte bytes[] = new byte[_buf.getInt()];
+                _buf.get(bytes);
+                String str = new String(bytes, StandardCharsets.UTF_8);
+                _strings.add(str);
+                return str;
+            }
+            case STRING_REF: return _strings.get(_buf.getInt());
+            case INT: return _buf.getInt();
+            case LONG: return _buf.getLong();
+            case DOUBLE: return _buf.getDouble();
+            case FLOAT: return _buf.getFloat();
+            case DECIMAL: return new BigDecimal((String) readValue());
+            case TRUE: return Boolean.TRUE;
+            case FALSE: return Boolean.FALSE;
+            case DATE: return new Date(_buf.getLong());
+            case BYTES: {
+                byte bytes[] = new byte[_buf.getInt()];
+                _buf.get(bytes);
+                return bytes;
+            }
+            case MAP: return readMap();
+            case LIST: return readList();
+            case HEADER: return readRecord(readHeader());
+            case RECORD: throw new RuntimeException("RMDatasetSnapshot: Record without header");
+            case OBJECT_REF: {
+                Object obj = _objects.get(_buf.getInt());
+                return obj instanceof RMCSVReader.Header ? readRecord((RMCSVReader.Header) obj) : obj;
+            }
+            default: throw new RuntimeException("RMDatasetSnapshot: Invalid tag " + tag);
+        }
+    }
+
+    /**
+     * Reads a map.
+     */
+    private Map<String,Object> readMap()
+    {
+        int size = _buf.getInt();
+        Map<String,Object> map = new LinkedHashMap<>(size * 4 / 3 + 1);
+        _objects.add(map);
+        for (int i = 0; i < size; i++) {
+            String key = (String) readValue();
+            map.put(key, readValue());
+        }
+        return map;
+    }
+
+    /**
+     * Reads a list.
+     */
+    private List<Object> readList()
+    {
+        int size = _buf.getInt();
+        List<Object> list = new ArrayList<>(size);
+        _objects.add(list);
+        for (int i = 0; i < size; i++)
+            list.add(readValue());
+        return list;
+    }
+
+    /**
+     * Reads a CSV header.
+     */
+    private RMCSVReader.Header readHeader()
+    {
+        int count = _buf.getInt();
+        String names[] = new String[count];
+        Property props[] = new Property[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = (String) readValue();
+            props[i] = new Property(names[i]);
+        }
+        RMCSVReader.Header header = new RMCSVReader.Header(props, names);
+        _objects.add(header);
+        return header;
+    }
+
+    /**
+     * Reads a CSV record for given header.
+     */
+    private RMCSVReader.Record readRecord(RMCSVReader.Header aHeader)
+    {
+        if (_buf.get() != RECORD)
+            throw new RuntimeException("RMDatasetSnapshot: Header without record");
+        Object values[] = new Object[aHeader.getColumnCount()];
+        RMCSVReader.Record record = new RMCSVReader.Record(aHeader, values);
+        _objects.add(record);
+        for (int i = 0; i < values.length; i++)
+            values[i] = readValue();
+        return record;
+    }
+}
@@ -75,9 +75,9 @@ public class RMDateFormat implements RMFormat, Cloneable {
     }
 
     /**
-     * Formats the given object.
+     * Formats the given object (synchronized, so report parts generated in parallel can share format).
      */
-    public String format(Object anObj)
+    public synchronized String format(Object anObj)
     {
         // If locale hasn't been set, get it from RMDocument locale
         if (_locale != RMDocument._locale) {
@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.base;
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class sorts and groups datasets that are too large for memory, using temp files (see RMSpillList):
+ *
+ *   - Sort: records are read in runs that fit the memory budget, each run is sorted and written to a temp file, then
+ *     runs are merged (up to MERGE_FACTOR at a time) into one sorted temp file.
+ *   - Group: records are sorted by grouping keys (then leaf sorts) and split where key values change. Upper level
+ *     groups are normal RMGroups, but groups of leaves are RMSpillGroups, which read leaf records back from the
+ *     temp file as they are accessed.
+ *
+ * RMGrouper.groupObjects() uses this automatically when a dataset's row count or estimated size exceeds the budget
+ * (see isOverBudget()) and records are flat maps (see RMSpillList.isSpillable()). The resulting groups are the same
+ * (and in the same order) as RMGroup.groupBy().
+ */
+public class RMExternalSort {
+
+    // The memory budget for sorting and grouping in memory (estimated bytes)
+    private static long  _memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+    // The max number of records for sorting and grouping in memory (zero or less for no limit)
+    private static int  _maxRows;
+
+    // The directory for temp files (null for default temp directory)
+    private static File  _tempDir;
+
+    // Constants for number of runs merged at once and number of records sampled for size estimate
+    private static final int MERGE_FACTOR = 64;
+    private static final int SAMPLE_SIZE = 64;
+
+    /**
+     * Returns the memory budget for sorting and grouping in memory (estimated bytes).
+     */
+    public static long getMemoryBudget()  { return _memoryBudget; }
+
+    /**
+     * Sets the memory budget for sorting and grouping in memory (estimated bytes).
+     */
+    public static void setMemoryBudget(long aValue)  { _memoryBudget = aValue; }
+
+    /**
+     * Returns the max number of records for sorting and grouping in memory (zero or less for no limit).
+     */
+    public static int getMaxRows()  { return _maxRows; }
+
+    /**
+     * Sets the max number of records for sorting and grouping in memory (zero or less for no limit).
+     */
+    public static void setMaxRows(int aValue)  { _maxRows = aValue; }
+
+    /**
+     * Returns the directory for temp files (null for default temp directory).
+     */
+    public static File getTempDir()  { return _tempDir; }
+
+    /**
+     * Sets the directory for temp files (null for default temp directory).
+     */
+    public static void setTempDir(File aDir)  { _tempDir = aDir; }
+
+    /**
+     * Returns whether given list of records should be sorted or grouped on disk: records are spillable and row count
+     * exceeds max rows or estimated size (from a sample) exceeds memory budget.
+     */
+    public static boolean isOverBudget(List aList)
+    {
+        // If empty, return false
+        int size = aList.size();
+        if (size == 0)
+            return false;
+
+        // Get estimated size of sample records (if any isn't spillable, return false)
+        int sampleCount = Math.min(size, SAMPLE_SIZE);
+        long sampleBytes = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            Object record = aList.get((int) ((long) i * size / sampleCount));
+            if (!RMSpillList.isSpillable(record))
+                return false;
+            sampleBytes += getEstimatedSize(record);
+        }
+
+        // Return whether row count or estimated size is over budget
+        if (_maxRows > 0 && size > _maxRows)
+            return true;
+        return sampleBytes * size / sampleCount > _memoryBudget;
+    }
+
+    /**
+     * Returns the estimated heap size of given flat record.
+     */
+    public static long getEstimatedSize(Object aRecord)
+    {
+        // If not map, just return reference size
+        if (!(aRecord instanceof Map))
+            return 16;
+
+        // Add map size and entry size with value for each entry
+        long size = 64;
+        for (Object value : ((Map) aRecord).values()) {
+            size += 48;
+            if (value instanceof String) size += 48 + ((String) value).length();
+            else if (value instanceof byte[]) size += 16 + ((byte[]) value).length;
+            else if (value != null) size += 24;
+        }
+        return size;
+    }
+
+    /**
+     * Returns given records sorted by given sorts, as a spill list (with record tags set to original index).
+     */
+    public static RMSpillList sort(Iterator anIter, List<RMSort> theSorts)
+    {
+        return sort(anIter, new Order(new String[0], theSorts));
+    }
+
+    /**
+     * Returns given records sorted by given order, as a spill list (with record tags set to original index).
+     */
+    private static RMSpillList sort(Iterator anIter, Order anOrder)
+    {
+        try { return merge(createRuns(anIter, anOrder), anOrder); }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    /**
+     * Returns sorted runs of given records, each as big as memory budget allows.
+     */
+    private static List<RMSpillList> createRuns(Iterator anIter, Order anOrder) throws IOException
+    {
+        // Get budget for each run (the rest is for groups and records read back)
+        List<RMSpillList> runs = new ArrayList<>();
+        List<Entry> entries = new ArrayList<>();
+        long runBudget = Math.max(_memoryBudget / 2, 1), bytes = 0, tag = 0;
+
+        // Iterate over records: add entry and if run is full, write run
+        while (anIter.hasNext()) {
+            Object record = anIter.next();
+            if (!RMSpillList.isSpillable(record))
+                throw new IllegalArgumentException("RMExternalSort: Record not spillable: " + record);
+            entries.add(anOrder.newEntry((Map) record, tag++));
+            bytes += getEstimatedSize(record);
+            if (bytes >= runBudget || _maxRows > 0 && entries.size() >= _maxRows) {
+                runs.add(writeRun(entries, anOrder));
+                entries.clear();
+                bytes = 0;
+            }
+        }
+
+        // Write last run and return runs
+        if (entries.size() > 0 || runs.isEmpty())
+            runs.add(writeRun(entries, anOrder));
+        return runs;
+    }
+
+    /**
+     * Sorts given entries and writes them to a new run.
+     */
+    private static RMSpillList writeRun(List<Entry> theEntries, Order anOrder) throws IOException
+    {
+        theEntries.sort(anOrder);
+        RMSpillList run = new RMSpillList(_tempDir);
+        for (Entry entry : theEntries)
+            run.add(entry._record, entry._tag);
+        return run;
+    }
+
+    /**
+     * Merges given sorted runs into one (runs are closed).
+     */
+    private static RMSpillList merge(List<RMSpillList> theRuns, Order anOrder) throws IOException
+    {
+        // Merge runs in batches until there are few enough to merge at once
+        List<RMSpillList> runs = theRuns;
+        while (runs.size() > MERGE_FACTOR) {
+            List<RMSpillList> merged = new ArrayList<>();
+            for (int i = 0, iMax = runs.size(); i < iMax; i += MERGE_FACTOR)
+                merged.add(mergeRuns(runs.subList(i, Math.min(i + MERGE_FACTOR, iMax)), anOrder));
+            runs = merged;
+        }
+
+        // Merge remaining runs (or just return if only one)
+        return runs.size() == 1 ? runs.get(0) : mergeRuns(runs, anOrder);
+    }
+
+    /**
+     * Merges given sorted runs into a new run (runs are closed).
+     */
+    private static RMSpillList mergeRuns(List<RMSpillList> theRuns, Order anOrder) throws IOException
+    {
+        // Create queue with a cursor for each run
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(theRuns.size(), (c1, c2) -> anOrder.compare(c1._entry, c2._entry));
+        for (RMSpillList run : theRuns) {
+            Cursor cursor = new Cursor(run, anOrder);
+            if (cursor.next())
+                queue.add(cursor);
+        }
+
+        // Write least entry of all runs until runs are done
+        RMSpillList merged = new RMSpillList(_tempDir);
+        while (!queue.isEmpty()) {
+            Cursor cursor = queue.poll();
+            merged.add(cursor._entry._record, cursor._entry._tag);
+            if (cursor.next())
+                queue.add(cursor);
+        }
+
+        // Close runs and return merged
+        for (RMSpillList run : theRuns)
+            run.close();
+        return merged;
+    }
+
+    /**
+     * Groups given records by given grouper on disk (see class comment).
+     */
+    public static RMGroup groupObjects(RMGrouper aGrouper, List aList)
+    {
+        // Get grouping keys for levels above leaf and leaf sorts (unless leaf has top N, which needs original order)
+        int levels = aGrouper.getGroupingCount() - 1;
+        RMGrouping leaf = aGrouper.getGroupingLast();
+        boolean isPresorted = leaf.getTopNSort().getCount() <= 0;
+        String keys[] = new String[levels];
+        for (int i = 0; i < levels; i++) keys[i] = aGrouper.getGroupingKey(i);
+        Order order = new Order(keys, isPresorted ? RMGroup.getSorts(leaf) : null);
+
+        // Sort records
+        RMSpillList records = sort(aList.iterator(), order);
+
+        // If just leaf grouping, return spill group for all records
+        if (levels == 0) {
+            RMGroup group = new RMSpillGroup(records, 0, records.size(), leaf.getKey());
+            finishGroups(group, aGrouper, 0, 0, null, isPresorted);
+            return group;
+        }
+
+        // Declare root group, current group, value and first tag (original index) for each level
+        RMGroup root = new RMGroup();
+        root._key = keys[0];
+        RMGroup groups[] = new RMGroup[levels];
+        Object values[] = new Object[levels];
+        long firstTags[] = new long[levels];
+        Map<RMGroup,Long> groupFirstTags = new IdentityHashMap<>();
+
+        // Iterate over records
+        for (int i = 0, iMax = records.size(); i < iMax; i++) {
+            Map record = records.get(i);
+            long tag = records.getTag(i);
+
+            // Iterate over levels to find first level with new value (and update first tag of unchanged levels)
+            int level = 0;
+            Object value = null;
+            for (; level < levels; level++) {
+                value = RMKeyChain.getValue(record, order._keyChains[level]);
+                if (groups[level] == null || !RMGroup.isSameGroupValue(values[level], value))
+                    break;
+                firstTags[level] = Math.min(firstTags[level], tag);
+            }
+
+            // Finish groups for changed level and levels below, and create new ones
+            for (int lev = level; lev < levels; lev++) {
+                if (groups[lev] != null)
+                    finishGroup(groups[lev], firstTags[lev], groupFirstTags, i);
+                if (lev > level)
+                    value = RMKeyChain.getValue(record, order._keyChains[lev]);
+                RMGroup group = lev + 1 < levels ? new RMGroup() : new RMSpillGroup(records, i, i, leaf.getKey());
+                group._value = value;
+                group._parent = lev > 0 ? groups[lev - 1] : root;
+                group._parent.add(group);
+                if (lev + 1 < levels)
+                    group._key = keys[lev + 1];
+                groups[lev] = group;
+                values[lev] = value;
+                firstTags[lev] = tag;
+            }
+        }
+
+        // Finish last groups
+        for (int lev = 0; lev < levels && groups[lev] != null; lev++)
+            finishGroup(groups[lev], firstTags[lev], groupFirstTags, records.size());
+
+        // Do order, top N and sorts for groups and return root
+        finishGroups(root, aGrouper, 0, levels, groupFirstTags, isPresorted);
+        return root;
+    }
+
+    /**
+     * Records first tag for given group and sets end index, if spill group.
+     */
+    private static void finishGroup(RMGroup aGroup, long aFirstTag, Map<RMGroup,Long> theFirstTags, int anEnd)
+    {
+        theFirstTags.put(aGroup, aFirstTag);
+        if (aGroup instanceof RMSpillGroup)
+            ((RMSpillGroup) aGroup)._end = anEnd;
+    }
+
+    /**
+     * Restores order of first appearance (like RMGroup.groupByKey()) for groups above leaf level, then does top N and
+     * sorts for groupings (leaf sorts are skipped if records were sorted by them).
+     */
+    private static void finishGroups(RMGroup aGroup, RMGrouper aGrouper, int aLevel, int aLevels,
+            Map<RMGroup,Long> theFirstTags, boolean isPresorted)
+    {
+        // If leaf level, do top N and sorts (unless presorted) and return
+        RMGrouping grouping = aGrouper.getGrouping(aLevel);
+        if (aLevel == aLevels) {
+            if (!isPresorted) {
+                aGroup.topNSortBy(grouping.getTopNSort());
+                aGroup.sortBy(grouping);
+            }
+            return;
+        }
+
+        // Restore order of first appearance, do top N and sorts, then recurse into child groups
+        aGroup.sort((g1, g2) -> Long.compare(theFirstTags.get(g1), theFirstTags.get(g2)));
+        aGroup.topNSortBy(grouping.getTopNSort());
+        aGroup.sortBy(grouping);
+        for (int i = 0, iMax = aGroup.size(); i < iMax; i++)
+            finishGroups(aGroup.getGroup(i), aGrouper, aLevel + 1, aLevels, theFirstTags, isPresorted);
+    }
+
+    /**
+     * Returns how two group values compare, with values that are different but compare the same ordered by class
+     * and string, so that equal values are always next to each other.
+     */
+    static int compareGroupValues(Object aValue1, Object aValue2)
+    {
+        // If same, return same
+        if (RMGroup.isSameGroupValue(aValue1, aValue2))
+            return 0;
+
+        // Get standard compare for ordered values
+        int compare = 0;
+        if (RMGroup.isOrderedValue(aValue1) && RMGroup.isOrderedValue(aValue2)) {
+            try { compare = RMSort.Compare(aValue1, aValue2); }
+            catch (RuntimeException e) { }
+        }
+
+        // If same, compare class name and string
+        if (compare == 0)
+            compare = aValue1.getClass().getName().compareTo(aValue2.getClass().getName());
+        if (compare == 0)
+            compare = aValue1.toString().compareTo(aValue2.toString());
+        return compare;
+    }
+
+    /**
+     * A record with its tag (original index) and group values.
+     */
+    private static class Entry {
+
+        // The record, tag and group values
+        Map  _record;
+        long  _tag;
+        Object  _values[];
+    }
+
+    /**
+     * The sort order: group values, then sorts, then tag (original index, so order is stable).
+     */
+    private static class Order implements Comparator<Entry> {
+
+        // The group key chains and sorts
+        RMKeyChain  _keyChains[];
+        List<RMSort>  _sorts;
+
+        /** Creates a new order for given group keys and sorts (can be null). */
+        Order(String theKeys[], List<RMSort> theSorts)
+        {
+            _keyChains = new RMKeyChain[theKeys.length];
+            for (int i = 0; i < theKeys.length; i++) _keyChains[i] = RMKeyChain.getKeyChain(theKeys[i]);
+            _sorts = theSorts != null ? theSorts : Collections.emptyList();
+        }
+
+        /** Returns a new entry for given record and tag. */
+        Entry newEntry(Map aRecord, long aTag)
+        {
+            Entry entry = new Entry();
+            entry._record = aRecord;
+            entry._tag = aTag;
+            entry._values = new Object[_keyChains.length];
+            for (int i = 0; i < _keyChains.length; i++) entry._values[i] = RMKeyChain.getValue(aRecord, _keyChains[i]);
+            return entry;
+        }
+
+        /** Compares two entries. */
+        public int compare(Entry anEntry1, Entry anEntry2)
+        {
+            for (int i = 0; i < _keyChains.length; i++) {
+                int compare = compareGroupValues(anEntry1._values[i], anEntry2._values[i]);
+                if (compare != 0) return compare;
+            }
+            for (int i = 0, iMax = _sorts.size(); i < iMax; i++) {
+                int compare = _sorts.get(i).compare(anEntry1._record, anEntry2._record);
+                if (compare != 0) return compare;
+            }
+            return Long.compare(anEntry1._tag, anEntry2._tag);
+        }
+    }
+
+    /**
+     * A cursor over the entries of a sorted run.
+     */
+    private static class Cursor {
+
+        // The run, order, next index and current entry
+        RMSpillList  _run;
+        Order  _order;
+        int  _index;
+        Entry  _entry;
+
+        /** Creates a new cursor for given run. */
+        Cursor(RMSpillList aRun, Order anOrder)  { _run = aRun; _order = anOrder; }
+
+        /** Reads next entry (returns false if run is done). */
+        boolean next()
+        {
+            if (_index >= _run.size()) return false;
+            _entry = _order.newEntry(_run.get(_index), _run.getTag(_index));
+            _index++;
+            return true;
+        }
+    }
+}
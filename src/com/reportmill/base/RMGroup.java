@@ -3,6 +3,8 @@
  */
 package com.reportmill.base;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 import snap.util.ListUtils;
 
 /**
@@ -25,6 +27,24 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
     // Whether group is a Top N Other aggregated group
     boolean _isTopNOthers;
 
+    // Whether group holds leaf objects as is, with leaf groups created as accessed (see groupByLeafKey())
+    boolean _compact;
+
+    // The leaf groups of compact group created so far (by index)
+    Leaf _leaves[];
+
+    // The distinct values in this group tree by key (see getAllValues(), cleared when group tree changes)
+    Map<String,List> _allValues;
+
+    // Whether this group or a group above it may have an all values index (so changes need to clear indexes)
+    boolean _inAllValues;
+
+    // Whether groupByLeafKey() makes groups compact
+    static boolean _compactLeaves = true;
+
+    // The group heritage keys (evaluated by group instead of its objects)
+    private static final String GROUP_KEYS[] = { "Up", "Running", "Remaining", "Row", "Parent", "Page" };
+
     /**
      * Creates an empty group.
      */
@@ -153,15 +173,23 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
      * Groups this group by the groupings in the given grouper.
      */
     public void groupBy(RMGrouper aGrouper, int start)
+    {
+        groupBy(aGrouper, start, new HashMap<>());
+    }
+
+    /**
+     * Groups this group by the groupings in the given grouper, given all values found so far in grouping pass (by key).
+     */
+    private void groupBy(RMGrouper aGrouper, int start, Map<String,List> theAllValues)
     {
         // Get grouping
         RMGrouping grouping = aGrouper.getGrouping(start);
 
         // If not last grouping, do normal group by grouping and recurse
         if (start + 1 < aGrouper.getGroupingCount()) {
-            groupBy(grouping, getExplicitValues(grouping));  // Do normal group by grouping
+            groupBy(grouping, getExplicitValues(grouping, theAllValues));  // Do normal group by grouping
             for (int i = 0, iMax = size(); i < iMax; i++)           // Recurse into subgroups for successive groupings
-                getGroup(i).groupBy(aGrouper, start + 1);
+                getGroup(i).groupBy(aGrouper, start + 1, theAllValues);
         }
 
         // If last grouping, group by leaf key then to top N and sorting
@@ -172,6 +200,155 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
         }
     }
 
+    /**
+     * Groups this group by the groupings in the given grouper like groupBy(), but on the common ForkJoinPool: each
+     * subgroup with at least given threshold of objects is grouped by its own task, and sorts of at least threshold
+     * objects are parallel sorts. Group order is the same as groupBy(), since subgroups are independent and sorts
+     * are stable. Key assignments of the calling thread are visible to the tasks (as a read-only copy - grouper doesn't
+     * group in parallel if keys have assignments, see RMGrouper.isParallel()).
+     */
+    public void groupByParallel(RMGrouper aGrouper, int start, int aThreshold)
+    {
+        Map assignments = Collections.unmodifiableMap(new HashMap(RMKeyChain.getAssignments()));
+        ForkJoinPool.commonPool().invoke(new GroupByTask(this, aGrouper, start, aThreshold, assignments));
+    }
+
+    /**
+     * Groups this group by the first given number of groupings in the given grouper in one pass, assuming objects are
+     * ordered by grouping keys (then does remaining groupings normally). Objects are split where key values change,
+     * without hashing, and groups already in order for a grouping's sort aren't sorted again. Returns false (with
+     * this group unchanged) if objects turn out not to be ordered (a value change that goes against order of previous
+     * changes, or values that are different but compare the same), so caller can fall back to groupBy().
+     */
+    public boolean groupByOrdered(RMGrouper aGrouper, int aCount)
+    {
+        // Get keys and declare arrays for current group, value and order of value changes for each level
+        String keys[] = new String[aCount];
+        RMKeyChain keyChains[] = new RMKeyChain[aCount];
+        for (int i = 0; i < aCount; i++) keyChains[i] = RMKeyChain.getKeyChain(keys[i] = aGrouper.getGroupingKey(i));
+        RMGroup groups[] = new RMGroup[aCount];
+        Object values[] = new Object[aCount];
+        int orders[] = new int[aCount];
+        List<RMGroup> topGroups = new ArrayList<>();
+
+        // Iterate over objects
+        for (int i = 0, iMax = size(); i < iMax; i++) {
+            Object object = get(i);
+
+            // Iterate over levels to find first level with new value
+            int level = 0;
+            Object value = null;
+            for (; level < aCount; level++) {
+                value = RMKeyChain.getValue(object, keyChains[level]);
+                if (groups[level] == null || !isSameGroupValue(values[level], value))
+                    break;
+            }
+
+            // If new value for existing group (not just new parent), make sure change is in same order as others
+            if (level < aCount && groups[level] != null) {
+                int order;
+                try { order = RMSort.Compare(values[level], value); }
+                catch (RuntimeException e) { return false; }
+                if (order != RMSort.ORDER_ASCEND && order != RMSort.ORDER_DESCEND)
+                    return false;
+                if (orders[level] == 0)
+                    orders[level] = order;
+                else if (orders[level] != order)
+                    return false;
+            }
+
+            // Create new groups for changed level and levels below
+            for (int lev = level; lev < aCount; lev++) {
+                if (lev > level)
+                    value = RMKeyChain.getValue(object, keyChains[lev]);
+                if (!isOrderedValue(value))
+                    return false;
+                RMGroup group = new RMGroup();
+                group._value = value;
+                if (lev > 0) {
+                    group._parent = groups[lev - 1];
+                    groups[lev - 1].add(group);
+                }
+                else {
+                    group._parent = this;
+                    topGroups.add(group);
+                }
+                if (lev + 1 < aCount)
+                    group._key = keys[lev + 1];
+                groups[lev] = group;
+                values[lev] = value;
+                for (int j = lev + 1; j < aCount; j++) groups[j] = null;
+            }
+
+            // Add object to group of last level
+            groups[aCount - 1].add(object);
+        }
+
+        // Install top level groups
+        _key = keys[0];
+        clear();
+        addAll(topGroups);
+
+        // Do top-N, sorts and remaining groupings
+        finishGroupByOrdered(aGrouper, 0, aCount, orders, new HashMap<>());
+        return true;
+    }
+
+    /**
+     * Does top-N and sorts (unless already in order) for groups built by groupByOrdered and remaining groupings.
+     */
+    private void finishGroupByOrdered(RMGrouper aGrouper, int aLevel, int aCount, int orders[],
+        Map<String,List> theAllValues)
+    {
+        // Do top N sort and sorts (if not already sorted)
+        RMGrouping grouping = aGrouper.getGrouping(aLevel);
+        topNSortBy(grouping.getTopNSort());
+        if (!isSortedByOrder(grouping, orders[aLevel]))
+            sortBy(grouping);
+
+        // Recurse into child groups (if last ordered level, do remaining groupings normally)
+        for (int i = 0, iMax = size(); i < iMax; i++) {
+            RMGroup group = getGroup(i);
+            if (aLevel + 1 < aCount)
+                group.finishGroupByOrdered(aGrouper, aLevel + 1, aCount, orders, theAllValues);
+            else group.groupBy(aGrouper, aLevel + 1, theAllValues);
+        }
+    }
+
+    /**
+     * Returns whether groups built in given order (of value changes) already satisfy grouping sorts: only when it has
+     * no top N and just one sort on grouping key in same order.
+     */
+    private static boolean isSortedByOrder(RMGrouping aGrouping, int anOrder)
+    {
+        if (aGrouping.getSortCount() == 0)
+            return true;
+        if (aGrouping.getSortCount() > 1 || aGrouping.getSortOnValues() || aGrouping.getTopNSort().getCount() > 0)
+            return false;
+        RMSort sort = aGrouping.getSort(0);
+        return sort.getClass() == RMSort.class && Objects.equals(sort.getKey(), aGrouping.getKey()) &&
+                (anOrder == 0 || anOrder == sort.getOrder());
+    }
+
+    /**
+     * Returns whether given group value has an order (RMSort.Compare() says any two other objects are ascending).
+     */
+    static boolean isOrderedValue(Object aValue)
+    {
+        return aValue == null || aValue instanceof String || aValue instanceof Number || aValue instanceof Date ||
+                aValue instanceof Boolean || aValue instanceof Comparable;
+    }
+
+    /**
+     * Returns whether given group values are the same (Maps by identity, like groupByKey).
+     */
+    static boolean isSameGroupValue(Object aValue1, Object aValue2)
+    {
+        if (aValue1 == aValue2) return true;
+        if (aValue1 == null || aValue1 instanceof Map) return false;
+        return aValue1.equals(aValue2);
+    }
+
     /**
      * Groups this group by given grouping.
      */
@@ -228,7 +405,7 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
                 if (valueKey == null) valueKey = Void.class;
 
                 // Create group, add to group map and add to this group
-                RMGroup group = new RMGroup();
+                RMGroup group = createGroup();
                 group._parent = this;
                 group._value = value;
                 groupMap.put(valueKey, group);
@@ -259,7 +436,7 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
 
             // If there isn't yet a group for value, create one and add it to groupMap
             if (group == null) {
-                group = new RMGroup();
+                group = createGroup();
                 group._parent = this;
                 group._value = value; // Create new group
                 groupMap.put(valueKey, group); // Add to group map
@@ -275,13 +452,21 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
     }
 
     /**
-     * Turns all list objects into leaf groups.
+     * Turns all list objects into leaf groups. If compact leaves is set, group just becomes compact: objects stay as
+     * they are and leaf groups are created as accessed (see isCompact()).
      */
     public void groupByLeafKey(String aKey)
     {
         // Set key to given key
         _key = aKey;
 
+        // If compact leaves and objects can be leaves of compact group, make group compact and return
+        if (_compact) return;
+        if (_compactLeaves && isCompactable()) {
+            _compact = true;
+            return;
+        }
+
         // Iterate over objects - If object isn't group, replace it with group
         for (int i = 0, iMax = size(); i < iMax; i++) {
             Object object = get(i);
@@ -295,6 +480,149 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
         }
     }
 
+    /**
+     * Returns whether group is compact: it holds leaf objects as is and list methods return leaf groups for them, which
+     * are created as accessed (then kept, so they're the same for any later access). Any change to group, other than
+     * a sort on object keys or a clear, first expands group (see expandLeaves()).
+     */
+    public boolean isCompact()  { return _compact; }
+
+    /**
+     * Returns whether groupByLeafKey() makes groups compact (instead of creating a leaf group for every object).
+     */
+    public static boolean isCompactLeaves()  { return _compactLeaves; }
+
+    /**
+     * Sets whether groupByLeafKey() makes groups compact (instead of creating a leaf group for every object).
+     */
+    public static void setCompactLeaves(boolean aValue)  { _compactLeaves = aValue; }
+
+    /**
+     * Returns whether group objects can be leaves of a compact group: group isn't empty and no object is a list or
+     * evaluates its own key chains (so leaf groups evaluate keys the same as their objects).
+     */
+    private boolean isCompactable()
+    {
+        if (isEmpty()) return false;
+        for (int i = 0, iMax = size(); i < iMax; i++) {
+            Object object = get(i);
+            if (object instanceof List || object instanceof RMKeyChain.Get)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the leaf group at given index of compact group (creating it if not yet created).
+     */
+    private synchronized RMGroup getLeaf(int anIndex)
+    {
+        // Get object (checks index) and leaf group (create leaves array if needed)
+        Object object = super.get(anIndex);
+        if (_leaves == null)
+            _leaves = new Leaf[size()];
+        Leaf leaf = _leaves[anIndex];
+
+        // If not yet created, create leaf group for object and add to leaves
+        if (leaf == null) {
+            leaf = new Leaf(anIndex);
+            leaf._parent = this;
+            leaf._isLeaf = true;
+            leaf.add(object);
+            leaf._inAllValues = _inAllValues;
+            _leaves[anIndex] = leaf;
+        }
+
+        // Return leaf group
+        return leaf;
+    }
+
+    /**
+     * Called before any change to group: clears all values indexes and expands group (if compact).
+     */
+    private void willChange()
+    {
+        clearAllValues();
+        expandLeaves();
+    }
+
+    /**
+     * Clears the all values index of this group and its parents (since their values include this group's values).
+     * Does nothing if no index was built in this group or above it since last clear (the usual case while grouping).
+     */
+    private void clearAllValues()
+    {
+        if (!_inAllValues) return;
+        for (RMGroup group = this; group != null; group = group._parent) {
+            group._allValues = null;
+            group._inAllValues = false;
+        }
+    }
+
+    /**
+     * Replaces objects of compact group with leaf groups (so group holds leaf groups like any other group).
+     */
+    public void expandLeaves()
+    {
+        if (!_compact) return;
+        synchronized (this) {
+            if (!_compact) return;
+            for (int i = 0, iMax = size(); i < iMax; i++)
+                super.set(i, getLeaf(i));
+            _compact = false;
+            _leaves = null;
+        }
+    }
+
+    /**
+     * Returns a list view of the leaf groups of compact group.
+     */
+    private List<Object> getLeafView()
+    {
+        return new AbstractList<Object>() {
+            public Object get(int anIndex)  { return getLeaf(anIndex); }
+            public int size()  { return RMGroup.this.size(); }
+        };
+    }
+
+    /**
+     * Sorts objects of compact group directly, if no leaf groups have been created yet and sorts only use object keys
+     * (so leaf groups would sort the same). Returns whether objects were sorted.
+     */
+    private synchronized boolean sortCompact(List<RMSort> theSorts, boolean isParallel)
+    {
+        // If leaf groups created or sorts use more than object keys, return false
+        if (_leaves != null || !isObjectSorts(theSorts))
+            return false;
+
+        // Sort objects and copy back to list (and clear all values indexes)
+        clearAllValues();
+        Object objects[] = super.toArray();
+        RMSort.sort(Arrays.asList(objects), theSorts, isParallel);
+        for (int i = 0; i < objects.length; i++)
+            super.set(i, objects[i]);
+        return true;
+    }
+
+    /**
+     * Returns whether given sorts are basic sorts that only use object keys (no group heritage keys or functions).
+     */
+    private static boolean isObjectSorts(List<RMSort> theSorts)
+    {
+        for (RMSort sort : theSorts) {
+            Class cls = sort.getClass();
+            if (cls != RMSort.class && cls != RMTopNSort.class && cls != RMValueSort.class || sort.getKey() == null)
+                return false;
+            RMKeyChain keyChain = RMKeyChain.getKeyChain(sort.getKey());
+            if (keyChain.hasOp(RMKeyChain.Op.FunctionCall))
+                return false;
+            for (String key : GROUP_KEYS)
+                if (keyChain.hasKey(key))
+                    return false;
+        }
+        return true;
+    }
+
     /**
      * Performs top N sort on group for an individual sort.
      */
@@ -312,8 +640,10 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
         int othersLength = othersEnd - othersStart;
 
         // If aSort is non-null, sort objects
-        if (aSort.getKey() != null && aSort.getKey().length() > 0)
-            Collections.sort(this, aSort);
+        if (aSort.getKey() != null && aSort.getKey().length() > 0) {
+            if (!_compact || !sortCompact(Collections.singletonList(aSort), false))
+                Collections.sort(this, aSort);
+        }
 
         // If IncludeOthers, but there is just one other, return (leave it)
         if (aSort.getIncludeOthers() && othersLength == 1) return;
@@ -322,7 +652,7 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
         if (aSort.getIncludeOthers() && othersLength > 0) {
 
             // Create group for others and grab attributes from first group in others
-            RMGroup group = new RMGroup();
+            RMGroup group = createGroup();
             group._key = getGroup(othersStart).getKey();
             group._parent = this;
             group._isTopNOthers = true;
@@ -353,32 +683,59 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
      * Sorts by sorts in given grouping.
      */
     public void sortBy(RMGrouping aGrouping)
+    {
+        sortBy(aGrouping, false);
+    }
+
+    /**
+     * Sorts by sorts in given grouping, with parallel sort if requested.
+     */
+    public void sortBy(RMGrouping aGrouping, boolean isParallel)
+    {
+        sortBy(getSorts(aGrouping), isParallel);
+    }
+
+    /**
+     * Returns the sorts for given grouping (with value sort first, if grouping sorts by values).
+     */
+    static List<RMSort> getSorts(RMGrouping aGrouping)
     {
         // Get grouping sorts list
         List sorts = aGrouping.getSorts();
 
         // If grouping sorts by values, insert value sort
         if (aGrouping.getSortOnValues()) {
-            List values = aGrouping.getValues(); // Get values list
-            if (values.size() > 0) { // If values, add to sorts
-                RMValueSort sort = new RMValueSort(aGrouping.getKey(), values); // Create new value sort
+            RMValueSort sort = aGrouping.getValueSort(); // Get value sort (cached by grouping)
+            if (sort != null) { // If values, add to sorts
                 sorts = sorts == null ? new ArrayList() : new ArrayList(sorts); // Create or copy list
                 sorts.add(0, sort); // Add new value sort
             }
         }
 
-        // Do norm sortBy list
-        sortBy(sorts);
+        // Return sorts
+        return sorts;
     }
 
     /**
      * Sorts the group by the sorts in the given list.
      */
     public void sortBy(List aSortList)
+    {
+        sortBy(aSortList, false);
+    }
+
+    /**
+     * Sorts the group by the sorts in the given list, with parallel sort if requested.
+     */
+    public void sortBy(List aSortList, boolean isParallel)
     {
         // Just return if size is less than 2 or sort list is empty
         if (size() < 2 || aSortList == null || aSortList.size() == 0) return;
 
+        // If compact, try to sort objects directly
+        if (_compact && sortCompact(aSortList, isParallel))
+            return;
+
         // Get last group
         RMGroup lastGroup = getGroupLast();
 
@@ -387,7 +744,7 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
             remove(size() - 1);
 
         // Do sort
-        RMSort.sort(this, aSortList);
+        RMSort.sort(this, aSortList, isParallel);
 
         // If lastGroup is topNOthers, add back to group
         if (lastGroup.isTopNOthers())
@@ -395,11 +752,24 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
     }
 
     /**
-     * Returns all values for a given grouping in this group hierarchy.
+     * Returns all distinct values for given key in this group hierarchy (in order first found). Values are found once
+     * per key and kept in an index, which is cleared when this group or any group below it changes.
      */
     public List getAllValues(String aKey)
     {
-        return getAllValues(aKey, new HashSet(), new ArrayList());
+        // Get values from index (if missing, find values and add)
+        List values;
+        synchronized (this) {
+            Map<String,List> allValues = _allValues;
+            if (allValues == null)
+                _allValues = allValues = new HashMap<>();
+            values = allValues.get(aKey);
+            if (values == null)
+                allValues.put(aKey, values = getAllValues(aKey, new HashSet(), new ArrayList()));
+        }
+
+        // Return copy
+        return new ArrayList(values);
     }
 
     /**
@@ -407,9 +777,20 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
      */
     private List getAllValues(String aKey, Set aSet, List aList)
     {
+        // Mark group (and any leaf groups of compact group) as in all values index, so changes clear index
+        _inAllValues = true;
+        Leaf leaves[] = _compact ? _leaves : null;
+        if (leaves != null)
+            for (Leaf leaf : leaves)
+                if (leaf != null) leaf._inAllValues = true;
+
         // Iterate over children
         for (int i = 0, iMax = size(); i < iMax; i++) {
-            Object child = get(i);
+            Object child = _compact ? super.get(i) : get(i);
+
+            // If child is group, mark it (even if empty, so changes clear index)
+            if (child instanceof RMGroup)
+                ((RMGroup) child)._inAllValues = true;
 
             // If child is group, forward on
             if (child instanceof RMGroup && ((RMGroup) child).size() > 0)
@@ -433,6 +814,14 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
      * Returns all values explicit for a given grouping in this group hierarchy (from Values string and includeAllValues).
      */
     private List getExplicitValues(RMGrouping aGrouping)
+    {
+        return getExplicitValues(aGrouping, new HashMap<>());
+    }
+
+    /**
+     * Returns all values explicit for a given grouping, given all values found so far in grouping pass (by key).
+     */
+    private List getExplicitValues(RMGrouping aGrouping, Map<String,List> theAllValues)
     {
         // Get grouping values
         List valuesList = null;
@@ -441,28 +830,23 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
         if (aGrouping.getIncludeValues())
             valuesList = aGrouping.getValues();
 
-        // If include all values, get all values
+        // If include all values, add all values of top parent not already in list
         if (aGrouping.getIncludeAllValues()) {
 
-            // Get top parent (by iterating up)
-            RMGroup topParent = this;
-            while (topParent.getParent() != null)
-                topParent = topParent.getParent();
+            // Get all values for key found in grouping pass (if missing, get from top parent and add, so that subgroups
+            // grouped later in pass use the same values, instead of finding them again in group tree they've changed)
+            List allValues = theAllValues.get(aGrouping.getKey());
+            if (allValues == null)
+                theAllValues.put(aGrouping.getKey(), allValues = getTopParent().getAllValues(aGrouping.getKey()));
 
-            // Create set to store all values
-            Set valuesSet = new HashSet();
+            // Create set and list for values, with given values (if provided)
+            Set valuesSet = valuesList != null ? new HashSet(valuesList) : new HashSet();
+            valuesList = valuesList != null ? new ArrayList(valuesList) : new ArrayList();
 
-            // If values provided, add them
-            if (valuesList != null) {
-                valuesSet.addAll(valuesList);
-                valuesList = new ArrayList(valuesList);
-            }
-
-            // If no values provides, create empty values list
-            else valuesList = new ArrayList();
-
-            // Get all values from top parent
-            topParent.getAllValues(aGrouping.getKey(), valuesSet, valuesList);
+            // Add all values not already in list
+            for (Object value : allValues)
+                if (valuesSet.add(value))
+                    valuesList.add(value);
         }
 
         // Return values list
@@ -470,12 +854,71 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
     }
 
     /**
-     * Returns a subset of this group from start index, inclusive, to end index, exclusive.
+     * Returns the top parent of this group (the group itself if no parent).
+     */
+    private RMGroup getTopParent()
+    {
+        RMGroup topParent = this;
+        while (topParent.getParent() != null)
+            topParent = topParent.getParent();
+        return topParent;
+    }
+
+    /**
+     * Creates a new child group for grouping.
+     */
+    protected RMGroup createGroup()
+    {
+        return new RMGroup();
+    }
+
+    /**
+     * Returns a view of this group: a group with the same attributes that shares this group's objects (and their
+     * subtrees) instead of copying them, which is copied on first change (see RMGroupView).
+     */
+    public RMGroup view()
+    {
+        return new RMGroupView(this, RMGroupView.getShared(this));
+    }
+
+    /**
+     * Returns a view of this group from start index, inclusive, to end index, exclusive (see view()).
+     */
+    public RMGroup slice(int start, int end)
+    {
+        return new RMGroupView(this, RMGroupView.getSlice(RMGroupView.getShared(this), start, end));
+    }
+
+    /**
+     * Returns a view of this group with just the objects that pass given filter key (see view()).
+     */
+    public RMGroup filter(String aKey)
+    {
+        return new RMGroupView(this, RMKeyChainFilter.getFiltered(RMGroupView.getShared(this), aKey));
+    }
+
+    /**
+     * Returns a view of the objects of given groups one after the other, with attributes of first group (see view()).
+     */
+    public static RMGroup concat(List<RMGroup> theGroups)
+    {
+        // Get objects of each group
+        List<List> lists = new ArrayList<>(theGroups.size());
+        for (RMGroup group : theGroups)
+            lists.add(RMGroupView.getShared(group));
+
+        // Return view of lists (with first group attributes)
+        List objects = RMGroupView.getConcat(lists);
+        return theGroups.size() > 0 ? new RMGroupView(theGroups.get(0), objects) : new RMGroupView(objects);
+    }
+
+    /**
+     * Returns a subset of this group from start index, inclusive, to end index, exclusive (a view, see slice()).
      */
     public RMGroup subgroup(int start, int end)
     {
-        // Create group from sublist, set attributes from this group and return
-        RMGroup group = new RMGroup(subList(start, end));
+        // Create view of range, set attributes from this group and return
+        RMGroup group = new RMGroupView(RMGroupView.getSlice(RMGroupView.getShared(this), start, end));
         group._key = _key;
         group._parent = _parent;
         group._isTopNOthers = _isTopNOthers;
@@ -628,8 +1071,12 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
     /**
      * Returns the first child sample for this group. In other words, the first real, non-group child.
      */
-    private Object getFirstSample()
+    Object getFirstSample()
     {
+        // If compact, return first object
+        if (_compact)
+            return size() > 0 ? super.get(0) : null;
+
         // Iterate over children - If child is a group, check for its first leaf group
         for (int i = 0, iMax = size(); i < iMax; i++) {
             Object child = get(i);
@@ -667,7 +1114,8 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
     public RMGroup clone()
     {
         //return (RMGroup)super.clone(); TeaVM doesn't like this
-        RMGroup copy = new RMGroup((List) this);
+        RMGroup copy = new RMGroup(_compact ? Arrays.asList(super.toArray()) : (List) this);
+        copy._compact = _compact;
         copy._key = _key;
         copy._value = _value;
         copy._parent = _parent;
@@ -683,7 +1131,7 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
     {
         // Get normal clone (just return if leaf), and clone children
         RMGroup clone = clone();
-        if (isLeaf()) return clone;
+        if (isLeaf() || clone._compact) return clone;
         for (int i = 0, iMax = size(); i < iMax; i++) {
             RMGroup grp = getGroup(i).cloneDeep();
             grp._parent = clone;
@@ -709,6 +1157,105 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
         return clone;
     }
 
+    /** List method - returns object at index (leaf group, if compact). */
+    public Object get(int anIndex)  { return _compact ? getLeaf(anIndex) : super.get(anIndex); }
+
+    /** List method - returns whether group contains given object. */
+    public boolean contains(Object anObj)  { return _compact ? getLeafView().contains(anObj) : super.contains(anObj); }
+
+    /** List method - returns index of given object. */
+    public int indexOf(Object anObj)  { return _compact ? getLeafView().indexOf(anObj) : super.indexOf(anObj); }
+
+    /** List method - returns last index of given object. */
+    public int lastIndexOf(Object anObj)
+    {
+        return _compact ? getLeafView().lastIndexOf(anObj) : super.lastIndexOf(anObj);
+    }
+
+    /** List method - returns array of objects. */
+    public Object[] toArray()  { return _compact ? getLeafView().toArray() : super.toArray(); }
+
+    /** List method - returns array of objects. */
+    public Object[] toArray(Object anArray[])
+    {
+        return _compact ? getLeafView().toArray(anArray) : super.toArray(anArray);
+    }
+
+    /** List method - returns iterator. */
+    public Iterator iterator()  { return _compact ? getLeafView().iterator() : super.iterator(); }
+
+    /** List method - returns list iterator. */
+    public ListIterator listIterator()  { return _compact ? getLeafView().listIterator() : super.listIterator(); }
+
+    /** List method - returns list iterator. */
+    public ListIterator listIterator(int anIndex)
+    {
+        return _compact ? getLeafView().listIterator(anIndex) : super.listIterator(anIndex);
+    }
+
+    /** List method - returns sub list (a copy, if compact). */
+    public List subList(int aStart, int anEnd)
+    {
+        return _compact ? new ArrayList(getLeafView().subList(aStart, anEnd)) : super.subList(aStart, anEnd);
+    }
+
+    /** List method - iterates over objects. */
+    public void forEach(Consumer anAction)
+    {
+        if (_compact) getLeafView().forEach(anAction);
+        else super.forEach(anAction);
+    }
+
+    /** List method - returns spliterator. */
+    public Spliterator spliterator()  { return _compact ? getLeafView().spliterator() : super.spliterator(); }
+
+    /** List method - expands (if compact) and adds. */
+    public boolean add(Object anObj)  { willChange(); return super.add(anObj); }
+
+    /** List method - expands (if compact) and adds. */
+    public void add(int anIndex, Object anObj)  { willChange(); super.add(anIndex, anObj); }
+
+    /** List method - expands (if compact) and adds all. */
+    public boolean addAll(Collection aList)  { willChange(); return super.addAll(aList); }
+
+    /** List method - expands (if compact) and adds all. */
+    public boolean addAll(int anIndex, Collection aList)  { willChange(); return super.addAll(anIndex, aList); }
+
+    /** List method - expands (if compact) and sets. */
+    public Object set(int anIndex, Object anObj)  { willChange(); return super.set(anIndex, anObj); }
+
+    /** List method - expands (if compact) and removes. */
+    public Object remove(int anIndex)  { willChange(); return super.remove(anIndex); }
+
+    /** List method - expands (if compact) and removes. */
+    public boolean remove(Object anObj)  { willChange(); return super.remove(anObj); }
+
+    /** List method - expands (if compact) and removes all. */
+    public boolean removeAll(Collection aList)  { willChange(); return super.removeAll(aList); }
+
+    /** List method - expands (if compact) and retains all. */
+    public boolean retainAll(Collection aList)  { willChange(); return super.retainAll(aList); }
+
+    /** List method - expands (if compact) and removes if. */
+    public boolean removeIf(Predicate aFilter)  { willChange(); return super.removeIf(aFilter); }
+
+    /** List method - expands (if compact) and removes range. */
+    protected void removeRange(int aStart, int anEnd)  { willChange(); super.removeRange(aStart, anEnd); }
+
+    /** List method - expands (if compact) and replaces all. */
+    public void replaceAll(UnaryOperator anOp)  { willChange(); super.replaceAll(anOp); }
+
+    /** List method - expands (if compact) and sorts. */
+    public void sort(Comparator aComparator)  { willChange(); super.sort(aComparator); }
+
+    /** List method - clears (without expanding). */
+    public void clear()
+    {
+        synchronized (this) { _compact = false; _leaves = null; }
+        clearAllValues();
+        super.clear();
+    }
+
     /**
      * Returns a string representation of this group.
      */
@@ -726,6 +1273,91 @@ public class RMGroup extends ArrayList implements RMKey.Get, RMKeyChain.Get {
         return sb.toString();
     }
 
+    /**
+     * A fork/join task to group a group by groupings from given start (see groupByParallel()).
+     */
+    private static class GroupByTask extends RecursiveAction {
+
+        // The group, grouper, start grouping index and threshold
+        RMGroup  _group;
+        RMGrouper  _grouper;
+        int  _start, _threshold;
+
+        // The key assignments of thread that started grouping
+        Map  _assignments;
+
+        /** Creates a new task. */
+        GroupByTask(RMGroup aGroup, RMGrouper aGrouper, int start, int aThreshold, Map theAssignments)
+        {
+            _group = aGroup;
+            _grouper = aGrouper;
+            _start = start;
+            _threshold = aThreshold;
+            _assignments = theAssignments;
+        }
+
+        /** Groups group by grouping at start, then subgroups by remaining groupings (large ones as subtasks). */
+        protected void compute()
+        {
+            Map oldAssignments = RMKeyChain.setAssignments(_assignments);
+            try { groupBy(); }
+            finally { RMKeyChain.setAssignments(oldAssignments); }
+        }
+
+        /** Does the work of groupBy(RMGrouper, int) for task group. */
+        private void groupBy()
+        {
+            // Get grouping and whether group is large enough for parallel sort
+            RMGrouping grouping = _grouper.getGrouping(_start);
+            boolean isParallel = _group.size() >= _threshold;
+
+            // If last grouping, group by leaf key then do top N and sorting
+            if (_start + 1 >= _grouper.getGroupingCount()) {
+                _group.groupByLeafKey(grouping.getKey());
+                _group.topNSortBy(grouping.getTopNSort());
+                _group.sortBy(grouping, isParallel);
+                return;
+            }
+
+            // Do normal group by grouping
+            _group.groupByKey(grouping.getKey(), _group.getExplicitValues(grouping));
+            _group.topNSortBy(grouping.getTopNSort());
+            _group.sortBy(grouping, isParallel);
+
+            // Fork tasks for large subgroups, group small subgroups here, then join tasks
+            List<GroupByTask> tasks = new ArrayList<>();
+            for (int i = 0, iMax = _group.size(); i < iMax; i++) {
+                RMGroup child = _group.getGroup(i);
+                if (child.size() >= _threshold) {
+                    GroupByTask task = new GroupByTask(child, _grouper, _start + 1, _threshold, _assignments);
+                    task.fork();
+                    tasks.add(task);
+                }
+                else child.groupBy(_grouper, _start + 1);
+            }
+            for (int i = tasks.size() - 1; i >= 0; i--)
+                tasks.get(i).join();
+        }
+    }
+
+    /**
+     * A leaf group of a compact group, which knows its index while group is compact.
+     */
+    static class Leaf extends RMGroup {
+
+        // The index in compact group
+        int  _index;
+
+        /** Creates a new leaf group for given index. */
+        Leaf(int anIndex)  { _index = anIndex; }
+
+        /** Returns the index of this group in its parent. */
+        public int index()
+        {
+            return _parent != null && _parent._compact ? _index : super.index();
+        }
+    }
+
     /**
      * This RMGroup subclass/inner-class represents a subset of a group up to the given endGroup. The only difference
      * between this and a normal subgroup is (a) it ignores the startGroup and (b) the "Up" key points back to the original
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.base;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * This class is a group that presents shared objects (the objects of another group, or a slice, filter or
+ * concatenation of them) without copying them or their subtrees. See RMGroup.view(), slice(), filter() and concat().
+ *
+ * Views are copy-on-write: any change to the view (add, remove, set, sort, regroup, etc.) first copies the shared
+ * object references into the view's own list, so the source is never changed. Child groups are never changed either:
+ * getGroup() returns a view of a shared child group (owned by this view), instead of resetting the child's parent.
+ * While objects are still shared, these child views are kept by index in an overlay of the shared objects, so getting
+ * a child group doesn't copy the objects. Groups created by regrouping a view are views too. Objects from get() are shared and shouldn't be changed.
+ *
+ * Sources are read as they are, so a plain group shouldn't be changed while views of it are in use (views of views
+ * take a snapshot if source view has been changed).
+ */
+public class RMGroupView extends RMGroup {
+
+    // The shared objects presented by this view (null once copied into group's own list)
+    List  _shared;
+
+    /**
+     * Creates an empty view (with no shared objects), like a group created by regrouping a view.
+     */
+    public RMGroupView()  { }
+
+    /**
+     * Creates a view of given shared objects.
+     */
+    public RMGroupView(List theObjects)
+    {
+        _shared = theObjects;
+    }
+
+    /**
+     * Creates a view of given shared objects, with attributes (key, value, parent, etc.) of given group.
+     */
+    public RMGroupView(RMGroup aGroup, List theObjects)
+    {
+        _shared = theObjects;
+        _key = aGroup._key;
+        _value = aGroup._value;
+        _parent = aGroup._parent;
+        _isLeaf = aGroup._isLeaf;
+        _isTopNOthers = aGroup._isTopNOthers;
+    }
+
+    /**
+     * Returns whether shared objects have been copied into group's own list (after first change).
+     */
+    public boolean isCopied()  { return _shared == null; }
+
+    /**
+     * Copies shared objects into group's own list (so group can be changed).
+     */
+    public synchronized void copy()
+    {
+        if (_shared == null) return;
+        Object objects[] = _shared.toArray();
+        _shared = null;
+        super.addAll(Arrays.asList(objects));
+    }
+
+    /**
+     * Returns the child group at given index: if shared (owned by another group), it's replaced by a view of it owned
+     * by this view, so the shared group isn't changed.
+     */
+    public RMGroup getGroup(int anIndex)
+    {
+        // Get group (if owned by this view, just return it)
+        RMGroup group = (RMGroup) get(anIndex);
+        if (group._parent == this)
+            return group;
+
+        // Create view of shared group, set in place of shared group and return
+        RMGroupView view = new RMGroupView(group, getShared(group));
+        view._parent = this;
+        setGroupView(anIndex, view);
+        return view;
+    }
+
+    /**
+     * Sets the view of a shared child group at given index: in overlay of shared objects if not yet copied (so shared
+     * objects don't need to be copied), otherwise in group's own list.
+     */
+    private synchronized void setGroupView(int anIndex, RMGroupView aView)
+    {
+        // If copied, just set in list
+        if (_shared == null) {
+            super.set(anIndex, aView);
+            return;
+        }
+
+        // Set in overlay of shared objects (create overlay if needed)
+        Overlay overlay = _shared instanceof Overlay ? (Overlay) _shared : null;
+        if (overlay == null)
+            _shared = overlay = new Overlay(_shared);
+        overlay._views[anIndex] = aView;
+    }
+
+    /**
+     * Creates a new child group for grouping (a view, so it doesn't change shared child groups either).
+     */
+    protected RMGroup createGroup()  { return new RMGroupView(); }
+
+    /**
+     * Override to copy first (group can become compact, which needs group's own list).
+     */
+    public void groupByLeafKey(String aKey)
+    {
+        copy();
+        super.groupByLeafKey(aKey);
+    }
+
+    /** List method - returns number of objects. */
+    public int size()  { List shared = _shared; return shared != null ? shared.size() : super.size(); }
+
+    /** List method - returns whether group is empty. */
+    public boolean isEmpty()  { List shared = _shared; return shared != null ? shared.isEmpty() : super.isEmpty(); }
+
+    /** List method - returns object at index. */
+    public Object get(int anIndex)  { List shared = _shared; return shared != null ? shared.get(anIndex) : super.get(anIndex); }
+
+    /** List method - returns whether group contains given object. */
+    public boolean contains(Object anObj)
+    {
+        List shared = _shared;
+        return shared != null ? shared.contains(anObj) : super.contains(anObj);
+    }
+
+    /** List method - returns index of given object. */
+    public int indexOf(Object anObj)
+    {
+        List shared = _shared;
+        return shared != null ? shared.indexOf(anObj) : super.indexOf(anObj);
+    }
+
+    /** List method - returns last index of given object. */
+    public int lastIndexOf(Object anObj)
+    {
+        List shared = _shared;
+        return shared != null ? shared.lastIndexOf(anObj) : super.lastIndexOf(anObj);
+    }
+
+    /** List method - returns array of objects. */
+    public Object[] toArray()  { List shared = _shared; return shared != null ? shared.toArray() : super.toArray(); }
+
+    /** List method - returns array of objects. */
+    public Object[] toArray(Object anArray[])
+    {
+        List shared = _shared;
+        return shared != null ? shared.toArray(anArray) : super.toArray(anArray);
+    }
+
+    /** List method - returns iterator. */
+    public Iterator iterator()  { List shared = _shared; return shared != null ? shared.iterator() : super.iterator(); }
+
+    /** List method - returns list iterator. */
+    public ListIterator listIterator()
+    {
+        List shared = _shared;
+        return shared != null ? Collections.unmodifiableList(shared).listIterator() : super.listIterator();
+    }
+
+    /** List method - returns list iterator. */
+    public ListIterator listIterator(int anIndex)
+    {
+        List shared = _shared;
+        return shared != null ? Collections.unmodifiableList(shared).listIterator(anIndex) : super.listIterator(anIndex);
+    }
+
+    /** List method - returns sub list (a copy, while not copied). */
+    public List subList(int aStart, int anEnd)
+    {
+        List shared = _shared;
+        return shared != null ? new ArrayList(shared.subList(aStart, anEnd)) : super.subList(aStart, anEnd);
+    }
+
+    /** List method - iterates over objects. */
+    public void forEach(Consumer anAction)
+    {
+        List shared = _shared;
+        if (shared != null) shared.forEach(anAction);
+        else super.forEach(anAction);
+    }
+
+    /** List method - returns spliterator. */
+    public Spliterator spliterator()
+    {
+        List shared = _shared;
+        return shared != null ? Collections.unmodifiableList(shared).spliterator() : super.spliterator();
+    }
+
+    /** List method - copies and adds. */
+    public boolean add(Object anObj)  { copy(); return super.add(anObj); }
+
+    /** List method - copies and adds. */
+    public void add(int anIndex, Object anObj)  { copy(); super.add(anIndex, anObj); }
+
+    /** List method - copies and adds all. */
+    public boolean addAll(Collection aList)  { copy(); return super.addAll(aList); }
+
+    /** List method - copies and adds all. */
+    public boolean addAll(int anIndex, Collection aList)  { copy(); return super.addAll(anIndex, aList); }
+
+    /** List method - copies and sets. */
+    public Object set(int anIndex, Object anObj)  { copy(); return super.set(anIndex, anObj); }
+
+    /** List method - copies and removes. */
+    public Object remove(int anIndex)  { copy(); return super.remove(anIndex); }
+
+    /** List method - copies and removes. */
+    public boolean remove(Object anObj)  { copy(); return super.remove(anObj); }
+
+    /** List method - copies and removes all. */
+    public boolean removeAll(Collection aList)  { copy(); return super.removeAll(aList); }
+
+    /** List method - copies and retains all. */
+    public boolean retainAll(Collection aList)  { copy(); return super.retainAll(aList); }
+
+    /** List method - copies and removes if. */
+    public boolean removeIf(Predicate aFilter)  { copy(); return super.removeIf(aFilter); }
+
+    /** List method - copies and removes range. */
+    protected void removeRange(int aStart, int anEnd)  { copy(); super.removeRange(aStart, anEnd); }
+
+    /** List method - copies and replaces all. */
+    public void replaceAll(UnaryOperator anOp)  { copy(); super.replaceAll(anOp); }
+
+    /** List method - copies and sorts. */
+    public void sort(Comparator aComparator)  { copy(); super.sort(aComparator); }
+
+    /** List method - clears (without copying). */
+    public void clear()
+    {
+        synchronized (this) { _shared = null; }
+        super.clear();
+    }
+
+    /**
+     * Standard clone implementation (a view of this view's objects, unless compact).
+     */
+    public RMGroup clone()
+    {
+        return _compact ? super.clone() : new RMGroupView(this, getShared(this));
+    }
+
+    /**
+     * Clone deep implementation (same as clone, since views don't change shared child groups, unless compact).
+     */
+    public RMGroup cloneDeep()
+    {
+        return _compact ? super.cloneDeep() : clone();
+    }
+
+    /**
+     * Returns the objects of given group to share in a view: a view's shared objects (or a snapshot if view has been
+     * copied) or the group itself.
+     */
+    static List getShared(RMGroup aGroup)
+    {
+        // If group is view, return shared objects (without view's own child views, or if copied, snapshot)
+        if (aGroup instanceof RMGroupView) {
+            List shared = ((RMGroupView) aGroup)._shared;
+            if (shared instanceof Overlay)
+                return ((Overlay) shared)._list;
+            return shared != null ? shared : Arrays.asList(aGroup.toArray());
+        }
+
+        // Return group
+        return aGroup;
+    }
+
+    /**
+     * Returns a list view of given range of given list.
+     */
+    static List getSlice(List aList, int aStart, int anEnd)
+    {
+        // Check range
+        if (aStart < 0 || anEnd > aList.size() || aStart > anEnd)
+            throw new IndexOutOfBoundsException("Range: " + aStart + "-" + anEnd + ", Size: " + aList.size());
+
+        // If full range, just return list
+        if (aStart == 0 && anEnd == aList.size())
+            return aList;
+
+        // Return slice
+        return new Slice(aList, aStart, anEnd);
+    }
+
+    /**
+     * Returns a list view of given lists one after the other.
+     */
+    static List getConcat(List<? extends List> theLists)
+    {
+        return theLists.size() == 1 ? theLists.get(0) : new Concat(theLists);
+    }
+
+    /**
+     * A list view of a range of a list.
+     */
+    private static class Slice extends AbstractList implements RandomAccess {
+
+        // The list and range
+        List  _list;
+        int  _start, _end;
+
+        /** Creates a new slice. */
+        Slice(List aList, int aStart, int anEnd)  { _list = aList; _start = aStart; _end = anEnd; }
+
+        /** Returns object at index. */
+        public Object get(int anIndex)
+        {
+            if (anIndex < 0 || anIndex >= _end - _start)
+                throw new IndexOutOfBoundsException("Index: " + anIndex + ", Size: " + size());
+            return _list.get(_start + anIndex);
+        }
+
+        /** Returns size. */
+        public int size()  { return _end - _start; }
+    }
+
+    /**
+     * A list view of shared objects with some objects (shared child groups) replaced by views owned by group.
+     */
+    private static class Overlay extends AbstractList implements RandomAccess {
+
+        // The shared objects and the views that replace them by index (null for none)
+        List  _list;
+        Object  _views[];
+
+        /** Creates a new overlay. */
+        Overlay(List aList)  { _list = aList; _views = new Object[aList.size()]; }
+
+        /** Returns object at index. */
+        public Object get(int anIndex)
+        {
+            Object view = _views[anIndex];
+            return view != null ? view : _list.get(anIndex);
+        }
+
+        /** Returns size. */
+        public int size()  { return _views.length; }
+    }
+
+    /**
+     * A list view of lists one after the other.
+     */
+    private static class Concat extends AbstractList implements RandomAccess {
+
+        // The lists and the start index of each list (plus total size at end)
+        List  _lists[];
+        int  _starts[];
+
+        /** Creates a new concatenation. */
+        Concat(List<? extends List> theLists)
+        {
+            _lists = theLists.toArray(new List[0]);
+            _starts = new int[_lists.length + 1];
+            for (int i = 0; i < _lists.length; i++)
+                _starts[i + 1] = _starts[i] + _lists[i].size();
+        }
+
+        /** Returns object at index. */
+        public Object get(int anIndex)
+        {
+            // Check index
+            if (anIndex < 0 || anIndex >= size())
+                throw new IndexOutOfBoundsException("Index: " + anIndex + ", Size: " + size());
+
+            // Find list for index and return object
+            int index = Arrays.binarySearch(_starts, anIndex);
+            if (index < 0) index = -index - 2;
+            while (_starts[index + 1] == anIndex) index++; // Skip empty lists
+            return _lists[index].get(anIndex - _starts[index]);
+        }
+
+        /** Returns size. */
+        public int size()  { return _starts[_lists.length]; }
+    }
+}
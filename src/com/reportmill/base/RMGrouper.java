@@ -2,7 +2,9 @@
  * Copyright (c) 2010, ReportMill Software. All rights reserved.
  */
 package com.reportmill.base;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import snap.props.PropChange;
 import snap.props.PropChangeListener;
 import snap.props.PropChangeSupport;
@@ -25,6 +27,9 @@ public class RMGrouper implements Cloneable, XMLArchiver.Archivable {
     // A listener to catch RMGrouping PropChange
     PropChangeListener _groupingLsnr = pc -> groupingDidPropChange(pc);
 
+    // The min number of objects for grouping (and sorting) subgroups in parallel (zero or less for never)
+    private static int  _parallelThreshold = 8192;
+
     /**
      * Creates an empty grouper.
      */
@@ -133,6 +138,15 @@ public class RMGrouper implements Cloneable, XMLArchiver.Archivable {
         return getGrouping(anIndex)._key;
     }
 
+    /**
+     * Adds the key paths referenced by groupings to given collection.
+     */
+    public void addKeyPaths(Collection<String> aList)
+    {
+        for (RMGrouping grouping : getGroupings())
+            grouping.addKeyPaths(aList);
+    }
+
     /**
      * Returns the index for the grouping with the given key.
      */
@@ -223,20 +237,130 @@ public class RMGrouper implements Cloneable, XMLArchiver.Archivable {
     }
 
     /**
-     * Separates given objects into RMGroups defined by groupings.
+     * Separates given objects into RMGroups defined by groupings. If objects turn out to be ordered by leading
+     * grouping keys, those groupings are built in one pass (see RMGroup.groupByOrdered()).
      */
     public RMGroup groupObjects(List aList)
     {
+        return groupObjects(aList, getOrderedGroupingLimit());
+    }
+
+    /**
+     * Separates given objects into RMGroups defined by groupings, given the number of leading groupings whose keys
+     * objects are known to be ordered by (like from RMSQLPlanner.getOrderedGroupingCount()).
+     */
+    public RMGroup groupObjects(List aList, int anOrderedCount)
+    {
+        // If objects too big for memory budget, sort and group on disk (if that fails, complain and do it in memory)
+        if (isExternal(aList)) {
+            try { return RMExternalSort.groupObjects(this, aList); }
+            catch (UncheckedIOException e) { System.err.println("RMGrouper.groupObjects: " + e.getCause()); }
+        }
+
         // Create new group for given list
         RMGroup group = new RMGroup(aList);
 
-        // Group by this grouper
-        group.groupBy(this, 0);
+        // If objects ordered by leading grouping keys, try to group in one pass
+        int count = Math.min(anOrderedCount, getOrderedGroupingLimit());
+        if (count > 0 && group.groupByOrdered(this, count))
+            return group;
+
+        // Group by this grouper (in parallel if large enough)
+        if (isParallel(group.size()))
+            group.groupByParallel(this, 0, _parallelThreshold);
+        else group.groupBy(this, 0);
 
         // Return group
         return group;
     }
 
+    /**
+     * Returns the min number of objects for grouping (and sorting) subgroups in parallel (zero or less for never).
+     */
+    public static int getParallelThreshold()  { return _parallelThreshold; }
+
+    /**
+     * Sets the min number of objects for grouping (and sorting) subgroups in parallel (zero or less for never).
+     */
+    public static void setParallelThreshold(int aValue)  { _parallelThreshold = aValue; }
+
+    /**
+     * Returns whether given number of objects should be grouped in parallel: threshold is set and reached, there are
+     * multiple cores, no grouping includes all values (since those are gathered from the whole group tree) and no
+     * grouping or sort key has an assignment (since tasks share the caller's assignments read-only).
+     */
+    protected boolean isParallel(int aCount)
+    {
+        // If threshold not set or reached, or single core, return false
+        if (_parallelThreshold <= 0 || aCount < _parallelThreshold || ForkJoinPool.getCommonPoolParallelism() < 2)
+            return false;
+
+        // If any grouping includes all values, return false
+        for (RMGrouping grouping : _groupings)
+            if (grouping.getIncludeAllValues())
+                return false;
+
+        // If any grouping or sort key has an assignment, return false
+        for (RMGrouping grouping : _groupings) {
+            if (hasAssignment(grouping.getKey()))
+                return false;
+            for (RMSort sort : grouping.getSorts())
+                if (hasAssignment(sort.getKey()))
+                    return false;
+            if (grouping.getTopNSort() != null && hasAssignment(grouping.getTopNSort().getKey()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether given key has an assignment.
+     */
+    private static boolean hasAssignment(String aKey)
+    {
+        return aKey != null && RMKeyChain.getKeyChain(aKey).hasOp(RMKeyChain.Op.Assignment);
+    }
+
+    /**
+     * Returns whether given objects should be grouped on disk (see RMExternalSort): objects are over memory budget,
+     * groupings above leaf have keys and no grouping has explicit values or top N others above leaf (since those are
+     * gathered from more than one group).
+     */
+    protected boolean isExternal(List aList)
+    {
+        // If any grouping has explicit values (or missing key or top N others above leaf), return false
+        for (int i = 0, iMax = getGroupingCount(); i < iMax; i++) {
+            RMGrouping grouping = getGrouping(i);
+            if (grouping.getIncludeValues() || grouping.getIncludeAllValues())
+                return false;
+            if (i + 1 < iMax && (grouping.getKey() == null || grouping.getTopNSort().getIncludeOthers() &&
+                    grouping.getTopNSort().getCount() > 0))
+                return false;
+        }
+
+        // Return whether objects are over memory budget
+        return getGroupingCount() > 0 && RMExternalSort.isOverBudget(aList);
+    }
+
+    /**
+     * Returns the max number of leading groupings that can be built in one pass over ordered objects: groupings
+     * before the last (leaf) grouping that have a key and no explicit values, up to and including first with top N
+     * (since top N others are grouped after).
+     */
+    public int getOrderedGroupingLimit()
+    {
+        int count = 0;
+        for (int i = 0, iMax = getGroupingCount() - 1; i < iMax; i++) {
+            RMGrouping grouping = getGrouping(i);
+            if (grouping.getKey() == null || grouping.getIncludeValues() || grouping.getIncludeAllValues())
+                break;
+            count++;
+            if (grouping.getTopNSort().getCount() > 0)
+                break;
+        }
+        return count;
+    }
+
     /**
      * Listen for property changes and forward to grouper's property change listeners.
      */
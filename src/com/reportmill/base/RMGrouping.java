@@ -25,6 +25,9 @@ public class RMGrouping implements Cloneable, XMLArchiver.Archivable {
     // Values (in the form of comma separated keychain keys) explicitly defined to sort or to include
     String _values;
 
+    // The value sort for explicitly defined values (cached, cleared when key or values change)
+    RMValueSort _valueSort;
+
     // Whether to sort on explicitly defined values
     boolean _sortOnValues;
 
@@ -78,9 +81,22 @@ public class RMGrouping implements Cloneable, XMLArchiver.Archivable {
     public void setKey(String aValue)
     {
         if (Objects.equals(aValue, _key)) return;
+        _valueSort = null;
         firePropChange("Key", _key, _key = aValue);
     }
 
+    /**
+     * Adds the key paths referenced by grouping key, sorts and top N sort to given collection.
+     */
+    public void addKeyPaths(Collection<String> aList)
+    {
+        RMKeyChain.addKeyPaths(getKey(), aList);
+        for (RMSort sort : getSorts())
+            RMKeyChain.addKeyPaths(sort.getKey(), aList);
+        if (getTopNSort() != null)
+            RMKeyChain.addKeyPaths(getTopNSort().getKey(), aList);
+    }
+
     /**
      * Returns the groupings list of sorts.
      */
@@ -220,9 +236,30 @@ public class RMGrouping implements Cloneable, XMLArchiver.Archivable {
     public void setValuesString(String aString)
     {
         if (Objects.equals(aString, _values)) return;
+        _valueSort = null;
         firePropChange("ValuesString", _values, _values = aString);
     }
 
+    /**
+     * Returns a sort that orders objects by grouping key value position in explicit values (null if no values).
+     * Values are parsed and indexed once per grouping, instead of for every group sorted.
+     */
+    public RMValueSort getValueSort()
+    {
+        // If already created, just return
+        RMValueSort valueSort = _valueSort;
+        if (valueSort != null)
+            return valueSort;
+
+        // If no values, just return null
+        List values = getValues();
+        if (values.isEmpty())
+            return null;
+
+        // Create, set and return
+        return _valueSort = new RMValueSort(_key, values);
+    }
+
     /**
      * Returns a list of explicit values for this grouping.
      */
@@ -20,6 +20,9 @@ public class RMKeyChain {
     // Whether key has a page reference
     Boolean _hasPageReference;
 
+    // The record adapter slot for key (if op is Key)
+    int _slot = -1;
+
     // A shared map of previously encountered key chains
     static Map<Object, RMKeyChain> _keyChains = new Hashtable();
 
@@ -171,6 +174,17 @@ public class RMKeyChain {
         return _assTL.get();
     }
 
+    /**
+     * Sets the thread-local assignments map and returns the previous one, so that tasks run on other threads can see
+     * assignments of the thread that started them.
+     */
+    public static Map setAssignments(Map aMap)
+    {
+        Map old = _assTL.get();
+        _assTL.set(aMap);
+        return old;
+    }
+
     /**
      * Returns the top level operator of the keychain.
      */
@@ -195,6 +209,16 @@ public class RMKeyChain {
         return _children instanceof String ? (String) _children : null;
     }
 
+    /**
+     * Returns the record adapter slot for key (if op is Key), so evaluation can skip string-keyed lookup.
+     */
+    public int getSlot()
+    {
+        if (_slot < 0)
+            _slot = RMRecordAdapter.getSlot(getValueString());
+        return _slot;
+    }
+
     /**
      * Returns the number of children in the keychain.
      */
@@ -343,7 +367,7 @@ public class RMKeyChain {
 
             // Handle basic Key
             case Key: {
-                Object value = RMKey.getValue(anObj, aKeyChain.getValueString());
+                Object value = RMRecordAdapter.getValue(anObj, aKeyChain.getSlot());
                 if (value == null) value = getAssignments().get(aKeyChain.getValue());
                 return value;
             }
@@ -598,6 +622,14 @@ public class RMKeyChain {
         return false;
     }
 
+    /**
+     * Returns whether given key is referenced anywhere in expression.
+     */
+    public boolean hasKey(String aKey)
+    {
+        return anyKeyReferencesKey(aKey);
+    }
+
     /**
      * Returns whether key contains given op.
      */
@@ -610,6 +642,56 @@ public class RMKeyChain {
         return false; // Return false since all checks failed
     }
 
+    /**
+     * Adds the key paths referenced by this key chain (like "Movies.Studio.Name") to given collection.
+     */
+    public void addKeyPaths(Collection<String> aList)
+    {
+        // Handle Key: Just add key
+        if (getOp() == Op.Key) {
+            aList.add(getValueString());
+            return;
+        }
+
+        // Handle Chain: Add path for leading keys
+        int start = 0;
+        if (getOp() == Op.Chain) {
+            String path = null;
+            for (int iMax = getChildCount(); start < iMax; start++) {
+                Object child = getChild(start);
+                if (!(child instanceof RMKeyChain) || ((RMKeyChain) child).getOp() != Op.Key) break;
+                path = StringUtils.add(path, ((RMKeyChain) child).getValueString(), ".");
+            }
+            if (path != null)
+                aList.add(path);
+        }
+
+        // Iterate over remaining children and forward on
+        for (int i = start, iMax = getChildCount(); i < iMax; i++)
+            if (getChild(i) instanceof RMKeyChain)
+                getChildKeyChain(i).addKeyPaths(aList);
+    }
+
+    /**
+     * Adds the key paths referenced by given key chain string (can be null) to given collection.
+     */
+    public static void addKeyPaths(String aKeyChain, Collection<String> aList)
+    {
+        if (aKeyChain != null && aKeyChain.length() > 0)
+            getKeyChain(aKeyChain).addKeyPaths(aList);
+    }
+
+    /**
+     * Returns the set of individual key names in given key paths (case-insensitive), as used for projections.
+     */
+    public static Set<String> getKeyNames(Collection<String> theKeyPaths)
+    {
+        Set<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (String keyPath : theKeyPaths)
+            Collections.addAll(names, keyPath.split("\\."));
+        return names;
+    }
+
     /**
      * Returns the last error encountered by the key chain parser (or null).
      */
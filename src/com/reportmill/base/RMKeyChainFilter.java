@@ -0,0 +1,548 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.base;
+import com.reportmill.base.RMKeyChain.Op;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+import snap.util.Convert;
+
+/**
+ * A class to filter lists with a filter key (like RMTable.getFilterKey()) faster than evaluating the keychain with
+ * RMKeyChain.getBoolValue() for each object:
+ *
+ *   - Compiled: the keychain is compiled once into a tree of conditions. Keys read record slots directly (see
+ *     RMRecordAdapter) and compares with a number or string literal skip the general RMSort.Compare().
+ *   - Short-circuit: And/Or stop at the first deciding condition, and before filtering a list, their conditions are
+ *     reordered (from a sample of the list) so that the cheapest, most deciding ones go first. The reordered
+ *     conditions are a copy used only for that list, since filters are cached and shared by threads.
+ *   - Parallel: large lists are tested in chunks on the common ForkJoinPool, keeping list order.
+ *
+ * Results are the same as RMKeyChain.getBoolValue(). Filters with assignments aren't compiled (they are evaluated in
+ * order, one object at a time), and objects that evaluate keychains themselves (like RMGroup) or are lists use the
+ * normal evaluation.
+ */
+public class RMKeyChainFilter implements Predicate<Object> {
+
+    // The keychain
+    RMKeyChain  _keyChain;
+
+    // The compiled condition (null if not compiled)
+    Cond  _cond;
+
+    // Whether filter can test objects on multiple threads
+    boolean  _parallel;
+
+    // The cached filters for filter keys
+    private static Map<String,RMKeyChainFilter>  _filters = new ConcurrentHashMap<>();
+
+    // The min number of objects for filtering in parallel (zero or less for never)
+    private static int  _parallelThreshold = 8192;
+
+    // Constants for number of objects tested in each parallel chunk and sampled to order conditions
+    private static final int CHUNK_SIZE = 2048;
+    private static final int SAMPLE_SIZE = 64;
+
+    // Constants for estimated cost of compiled and normal evaluation of a condition
+    private static final int COST_COMPILED = 1, COST_EVAL = 10;
+
+    /**
+     * Creates a new filter for given keychain.
+     */
+    public RMKeyChainFilter(RMKeyChain aKeyChain)
+    {
+        _keyChain = aKeyChain;
+        if (!aKeyChain.hasOp(Op.Assignment)) {
+            _cond = getCond(aKeyChain);
+            _parallel = !aKeyChain.hasOp(Op.FunctionCall);
+        }
+    }
+
+    /**
+     * Returns the (cached) filter for given filter key.
+     */
+    public static RMKeyChainFilter getFilter(String aKey)
+    {
+        RMKeyChainFilter filter = _filters.get(aKey);
+        if (filter == null)
+            _filters.put(aKey, filter = new RMKeyChainFilter(RMKeyChain.getKeyChain(aKey)));
+        return filter;
+    }
+
+    /**
+     * Returns given list filtered by given filter key (or list itself if key is null or empty).
+     */
+    public static <T> List<T> getFiltered(List<T> aList, String aKey)
+    {
+        if (aKey == null || aKey.length() == 0)
+            return aList;
+        return getFilter(aKey).filter(aList);
+    }
+
+    /**
+     * Returns the keychain.
+     */
+    public RMKeyChain getKeyChain()  { return _keyChain; }
+
+    /**
+     * Returns whether filter was compiled.
+     */
+    public boolean isCompiled()  { return _cond != null; }
+
+    /**
+     * Returns the min number of objects for filtering in parallel (zero or less for never).
+     */
+    public static int getParallelThreshold()  { return _parallelThreshold; }
+
+    /**
+     * Sets the min number of objects for filtering in parallel (zero or less for never).
+     */
+    public static void setParallelThreshold(int aValue)  { _parallelThreshold = aValue; }
+
+    /**
+     * Returns whether given object passes filter.
+     */
+    public boolean test(Object anObj)
+    {
+        return test(_cond, anObj);
+    }
+
+    /**
+     * Returns whether given object passes filter with given compiled condition (null if not compiled).
+     */
+    private boolean test(Cond aCond, Object anObj)
+    {
+        // If not compiled or object evaluates keychains itself, do normal version
+        if (aCond == null || anObj == null || anObj instanceof List || anObj instanceof RMKeyChain.Get)
+            return Convert.boolValue(RMKeyChain.getValue(anObj, _keyChain));
+
+        // Return compiled result
+        return aCond.test(anObj);
+    }
+
+    /**
+     * Returns a new list of the objects in given list that pass filter (in same order).
+     */
+    public <T> List<T> filter(List<T> aList)
+    {
+        // Get condition with conditions ordered for sample of list
+        int size = aList.size();
+        Cond cond = _cond;
+        if (cond != null && size > 1) {
+            List sample = new ArrayList();
+            for (int i = 0, iMax = Math.min(size, SAMPLE_SIZE); i < iMax; i++)
+                sample.add(aList.get((int) ((long) i * size / iMax)));
+            cond = cond.optimize(sample);
+        }
+
+        // If list is big enough (and filter can run on multiple threads), test in parallel
+        boolean passes[] = new boolean[size];
+        if (isParallel(aList)) {
+            Map assignments = new HashMap(RMKeyChain.getAssignments());
+            ForkJoinPool.commonPool().invoke(new FilterTask(this, cond, aList, passes, 0, size, assignments));
+        }
+
+        // Otherwise test in order
+        else for (int i = 0; i < size; i++)
+            passes[i] = test(cond, aList.get(i));
+
+        // Return objects that passed
+        List<T> list = new ArrayList<>();
+        for (int i = 0; i < size; i++)
+            if (passes[i]) list.add(aList.get(i));
+        return list;
+    }
+
+    /**
+     * Returns whether given list should be filtered in parallel: threshold is set and reached, there are multiple
+     * cores, list has random access and filter has no function calls (or assignments).
+     */
+    protected boolean isParallel(List aList)
+    {
+        return _parallel && _parallelThreshold > 0 && aList.size() >= _parallelThreshold &&
+                aList instanceof RandomAccess && ForkJoinPool.getCommonPoolParallelism() >= 2;
+    }
+
+    /**
+     * Returns a compiled condition for given keychain.
+     */
+    private static Cond getCond(RMKeyChain aKeyChain)
+    {
+        switch (aKeyChain.getOp()) {
+
+            // Handle And, Or: Add conditions of nested And/Or of same op
+            case And:
+            case Or: {
+                List<Cond> conds = new ArrayList<>();
+                addConds(aKeyChain, aKeyChain.getOp(), conds);
+                return new Logical(aKeyChain.getOp() == Op.And, conds.toArray(new Cond[0]));
+            }
+
+            // Handle Not
+            case Not: return new Not(getCond(aKeyChain.getChildKeyChain(0)));
+
+            // Handle compare ops
+            case Equal:
+            case NotEqual:
+            case GreaterThan:
+            case LessThan:
+            case GreaterThanOrEqual:
+            case LessThanOrEqual: {
+
+                // If literal is first, swap operands (compare order is flipped back in test)
+                Op op = aKeyChain.getOp();
+                RMKeyChain kc1 = aKeyChain.getChildKeyChain(0), kc2 = aKeyChain.getChildKeyChain(1);
+                boolean swap = kc1.getOp() == Op.Literal && kc2.getOp() != Op.Literal;
+                if (swap) {
+                    RMKeyChain kc = kc1; kc1 = kc2; kc2 = kc;
+                }
+
+                // If compare with number or string literal, return fast compare
+                Object literal = kc2.getOp() == Op.Literal ? kc2.getValue() : null;
+                if (literal instanceof Number || literal instanceof String)
+                    return new CompareLiteral(op, getVal(kc1), literal, swap);
+
+                // Return general compare
+                return new Compare(op, getVal(swap ? kc2 : kc1), getVal(swap ? kc1 : kc2));
+            }
+
+            // Handle anything else: bool value of value
+            default: return new BoolValue(getVal(aKeyChain));
+        }
+    }
+
+    /**
+     * Adds conditions for given keychain, flattening nested And/Or of given op.
+     */
+    private static void addConds(RMKeyChain aKeyChain, Op anOp, List<Cond> theConds)
+    {
+        if (aKeyChain.getOp() == anOp) {
+            addConds(aKeyChain.getChildKeyChain(0), anOp, theConds);
+            addConds(aKeyChain.getChildKeyChain(1), anOp, theConds);
+        }
+        else theConds.add(getCond(aKeyChain));
+    }
+
+    /**
+     * Returns a compiled value for given keychain.
+     */
+    private static Val getVal(RMKeyChain aKeyChain)
+    {
+        switch (aKeyChain.getOp()) {
+            case Literal: return new Literal(aKeyChain.getValue());
+            case Key: return new Key(aKeyChain);
+            default: return new Eval(aKeyChain);
+        }
+    }
+
+    /**
+     * Returns the result of given compare op for given compare order.
+     */
+    private static boolean isCompareTrue(Op anOp, int anOrder)
+    {
+        switch (anOp) {
+            case GreaterThan: return anOrder == RMSort.ORDER_DESCEND;
+            case LessThan: return anOrder == RMSort.ORDER_ASCEND;
+            case Equal: return anOrder == RMSort.ORDER_SAME;
+            case NotEqual: return anOrder != RMSort.ORDER_SAME;
+            case GreaterThanOrEqual: return anOrder != RMSort.ORDER_ASCEND;
+            case LessThanOrEqual: return anOrder != RMSort.ORDER_DESCEND;
+            default: throw new RuntimeException("RMKeyChainFilter.isCompareTrue: Not a compare op: " + anOp);
+        }
+    }
+
+    /**
+     * Returns a string representation of filter.
+     */
+    public String toString()
+    {
+        return "RMKeyChainFilter { KeyChain=" + _keyChain + ", Compiled=" + isCompiled() + " }";
+    }
+
+    /**
+     * A compiled condition.
+     */
+    private static abstract class Cond {
+
+        /** Returns whether condition is true for given object. */
+        abstract boolean test(Object anObj);
+
+        /** Returns the estimated cost of test. */
+        int getCost()  { return COST_COMPILED; }
+
+        /** Returns this condition with nested conditions reordered for given sample objects (a copy if reordered). */
+        Cond optimize(List aSample)  { return this; }
+    }
+
+    /**
+     * A condition for And/Or of conditions, with conditions ordered by rank (cost over chance of deciding result).
+     */
+    private static class Logical extends Cond {
+
+        // Whether And (or Or) and the conditions (in test order)
+        boolean  _and;
+        Cond  _conds[];
+
+        /** Creates a new And/Or for given conditions. */
+        Logical(boolean isAnd, Cond theConds[])  { _and = isAnd; _conds = theConds; }
+
+        /** Returns whether conditions are all true (And) or any is true (Or). */
+        boolean test(Object anObj)
+        {
+            for (Cond cond : _conds)
+                if (cond.test(anObj) != _and)
+                    return !_and;
+            return _and;
+        }
+
+        /** Returns the sum of condition costs. */
+        int getCost()
+        {
+            int cost = 0;
+            for (Cond cond : _conds) cost += cond.getCost();
+            return cost;
+        }
+
+        /** Returns a copy with conditions ordered by rank for given sample objects. */
+        Cond optimize(List aSample)
+        {
+            // Optimize nested conditions and get rank of each (cost over rate of deciding result, stable for ties)
+            Cond conds[] = new Cond[_conds.length];
+            double ranks[] = new double[conds.length];
+            for (int i = 0; i < conds.length; i++) {
+                conds[i] = _conds[i].optimize(aSample);
+                int decided = 0;
+                for (Object obj : aSample) {
+                    if (obj == null || obj instanceof List || obj instanceof RMKeyChain.Get) continue;
+                    try { if (conds[i].test(obj) != _and) decided++; }
+                    catch (RuntimeException e) { }
+                }
+                ranks[i] = conds[i].getCost() / ((decided + 1d) / (aSample.size() + 1d));
+            }
+
+            // Sort conditions by rank and return new And/Or
+            Integer order[] = new Integer[conds.length];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (i1, i2) -> Double.compare(ranks[i1], ranks[i2]));
+            Cond sorted[] = new Cond[conds.length];
+            for (int i = 0; i < order.length; i++) sorted[i] = conds[order[i]];
+            return new Logical(_and, sorted);
+        }
+    }
+
+    /**
+     * A condition for Not.
+     */
+    private static class Not extends Cond {
+
+        // The condition
+        Cond  _cond;
+
+        /** Creates a new Not. */
+        Not(Cond aCond)  { _cond = aCond; }
+
+        /** Returns whether condition is false. */
+        boolean test(Object anObj)  { return !_cond.test(anObj); }
+
+        /** Returns condition cost. */
+        int getCost()  { return _cond.getCost(); }
+
+        /** Returns Not of optimized condition. */
+        Cond optimize(List aSample)
+        {
+            Cond cond = _cond.optimize(aSample);
+            return cond != _cond ? new Not(cond) : this;
+        }
+    }
+
+    /**
+     * A condition for a compare of two values.
+     */
+    private static class Compare extends Cond {
+
+        // The op and values
+        Op  _op;
+        Val  _val1, _val2;
+
+        /** Creates a new compare. */
+        Compare(Op anOp, Val aVal1, Val aVal2)  { _op = anOp; _val1 = aVal1; _val2 = aVal2; }
+
+        /** Returns whether compare is true. */
+        boolean test(Object anObj)
+        {
+            return isCompareTrue(_op, RMSort.Compare(_val1.get(anObj), _val2.get(anObj)));
+        }
+
+        /** Returns value costs. */
+        int getCost()  { return _val1.getCost() + _val2.getCost(); }
+    }
+
+    /**
+     * A condition for a compare of a value and a number or string literal.
+     */
+    private static class CompareLiteral extends Cond {
+
+        // The op, value, literal (and literal as double) and whether literal is first operand
+        Op  _op;
+        Val  _val;
+        Object  _literal;
+        double  _number;
+        boolean  _literalFirst;
+
+        /** Creates a new compare. */
+        CompareLiteral(Op anOp, Val aVal, Object aLiteral, boolean isLiteralFirst)
+        {
+            _op = anOp; _val = aVal; _literal = aLiteral; _literalFirst = isLiteralFirst;
+            _number = aLiteral instanceof Number ? ((Number) aLiteral).doubleValue() : 0;
+        }
+
+        /** Returns whether compare is true. */
+        boolean test(Object anObj)
+        {
+            // Get value and order (compare number or string directly, or do general compare)
+            Object value = _val.get(anObj);
+            int order;
+            if (value instanceof Number && _literal instanceof Number) {
+                double number = ((Number) value).doubleValue();
+                order = number < _number ? RMSort.ORDER_ASCEND : number > _number ? RMSort.ORDER_DESCEND : RMSort.ORDER_SAME;
+            }
+            else if (value instanceof String && _literal instanceof String) {
+                int compare = ((String) value).compareToIgnoreCase((String) _literal);
+                order = compare < 0 ? RMSort.ORDER_ASCEND : compare > 0 ? RMSort.ORDER_DESCEND : RMSort.ORDER_SAME;
+            }
+            else return isCompareTrue(_op, _literalFirst ? RMSort.Compare(_literal, value) : RMSort.Compare(value, _literal));
+
+            // Return result (flip order if literal first)
+            return isCompareTrue(_op, _literalFirst ? -order : order);
+        }
+
+        /** Returns value cost. */
+        int getCost()  { return _val.getCost(); }
+    }
+
+    /**
+     * A condition for the bool value of a value.
+     */
+    private static class BoolValue extends Cond {
+
+        // The value
+        Val  _val;
+
+        /** Creates a new bool value. */
+        BoolValue(Val aVal)  { _val = aVal; }
+
+        /** Returns bool value. */
+        boolean test(Object anObj)  { return Convert.boolValue(_val.get(anObj)); }
+
+        /** Returns value cost. */
+        int getCost()  { return _val.getCost(); }
+    }
+
+    /**
+     * A compiled value.
+     */
+    private static abstract class Val {
+
+        /** Returns the value for given object. */
+        abstract Object get(Object anObj);
+
+        /** Returns the estimated cost of get. */
+        int getCost()  { return COST_COMPILED; }
+    }
+
+    /**
+     * A literal value.
+     */
+    private static class Literal extends Val {
+
+        // The value
+        Object  _value;
+
+        /** Creates a new literal. */
+        Literal(Object aValue)  { _value = aValue; }
+
+        /** Returns the value. */
+        Object get(Object anObj)  { return _value; }
+    }
+
+    /**
+     * A key value (read from record slot, or assignments if null).
+     */
+    private static class Key extends Val {
+
+        // The key and slot
+        String  _key;
+        int  _slot;
+
+        /** Creates a new key for given Key keychain. */
+        Key(RMKeyChain aKeyChain)  { _key = aKeyChain.getValueString(); _slot = aKeyChain.getSlot(); }
+
+        /** Returns the value. */
+        Object get(Object anObj)
+        {
+            Object value = RMRecordAdapter.getValue(anObj, _slot);
+            if (value == null) value = RMKeyChain.getAssignments().get(_key);
+            return value;
+        }
+    }
+
+    /**
+     * A value evaluated normally (for chains, math, functions, etc.).
+     */
+    private static class Eval extends Val {
+
+        // The keychain
+        RMKeyChain  _keyChain;
+
+        /** Creates a new eval. */
+        Eval(RMKeyChain aKeyChain)  { _keyChain = aKeyChain; }
+
+        /** Returns the value. */
+        Object get(Object anObj)  { return RMKeyChain.getValue(anObj, _keyChain); }
+
+        /** Returns the cost. */
+        int getCost()  { return COST_EVAL; }
+    }
+
+    /**
+     * A task to test a range of list objects (splitting into subtasks while range is bigger than a chunk).
+     */
+    private static class FilterTask extends RecursiveAction {
+
+        // The filter, condition, list, results, range and caller's key assignments
+        RMKeyChainFilter  _filter;
+        Cond  _cond;
+        List  _list;
+        boolean  _passes[];
+        int  _start, _end;
+        Map  _assignments;
+
+        /** Creates a new task for given range. */
+        FilterTask(RMKeyChainFilter aFilter, Cond aCond, List aList, boolean thePasses[], int aStart, int anEnd,
+                Map theAssigns)
+        {
+            _filter = aFilter; _cond = aCond; _list = aList; _passes = thePasses; _start = aStart; _end = anEnd; _assignments = theAssigns;
+        }
+
+        /** Tests range (or splits it). */
+        protected void compute()
+        {
+            // If range bigger than chunk, split in half
+            if (_end - _start > CHUNK_SIZE) {
+                int mid = (_start + _end) >>> 1;
+                invokeAll(new FilterTask(_filter, _cond, _list, _passes, _start, mid, _assignments),
+                        new FilterTask(_filter, _cond, _list, _passes, mid, _end, _assignments));
+                return;
+            }
+
+            // Test objects with caller's assignments
+            Map old = RMKeyChain.setAssignments(_assignments);
+            try {
+                for (int i = _start; i < _end; i++)
+                    _passes[i] = _filter.test(_cond, _list.get(i));
+            }
+            finally { RMKeyChain.setAssignments(old); }
+        }
+    }
+}
@@ -386,9 +386,9 @@ public class RMNumberFormat implements RMFormat, Cloneable {
     }
 
     /**
-     * Returns a formatted version of the given object.
+     * Returns a formatted version of the given object (synchronized, since DecimalFormat isn't thread-safe).
      */
-    public String format(Object anObj)
+    public synchronized String format(Object anObj)
     {
         // If object is number, do normal formatting
         Object num = getNumber(anObj);
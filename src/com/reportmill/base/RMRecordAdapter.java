@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.base;
+import java.lang.invoke.*;
+import java.lang.reflect.Method;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import snap.props.PropObject;
+import snap.util.*;
+
+/**
+ * This class gets key values from records of a given class (beans, Maps, RMGroups, ResultSet rows) by slot instead
+ * of by key string. Every key string is registered once for a global slot (RMKeyChain caches the slot for its key),
+ * and each adapter resolves a slot once for its class (bean getters become MethodHandles), so evaluating a key on a
+ * record skips the synchronized Key.getAccessor() lookup, key standardization and reflection.
+ *
+ * Adapters are shared across threads: slot tables are copy-on-write and bean getters are resolved under lock.
+ * Objects with no adapter (Sets, arrays, or anything when an AppServer is set) and the special keys "this" and
+ * "idHashCode" fall back to RMKey.getValue().
+ */
+public abstract class RMRecordAdapter {
+
+    // The slots for registered keys
+    private static Map<String,Integer>  _slots = new ConcurrentHashMap<>();
+
+    // The keys, standard keys (see Key.getStandard()) and flags for slots
+    private static volatile String  _slotKeys[] = new String[0];
+    private static volatile String  _slotStdKeys[] = new String[0];
+    private static volatile byte  _slotFlags[] = new byte[0];
+
+    // The adapters for classes
+    private static ClassValue<RMRecordAdapter>  _adapters = new ClassValue<RMRecordAdapter>() {
+        protected RMRecordAdapter computeValue(Class<?> aClass)  { return createAdapter(aClass); }
+    };
+
+    // Constants for slot flags: key is special (must use general path) or key is group heritage key (Up, Row, etc.)
+    private static final byte SPECIAL_KEY = 1, GROUP_KEY = 2;
+
+    // Constants for the shared adapters
+    private static final RMRecordAdapter MAP_ADAPTER = new MapAdapter();
+    private static final RMRecordAdapter GROUP_ADAPTER = new GroupAdapter();
+    private static final RMRecordAdapter GET_ADAPTER = new GetAdapter();
+    private static final RMRecordAdapter GENERAL_ADAPTER = new GeneralAdapter();
+
+    /**
+     * Returns the value for given slot on given record of this adapter's class.
+     */
+    public abstract Object get(Object aRecord, int aSlot);
+
+    /**
+     * Returns the slot for given key (registering it if needed).
+     */
+    public static int getSlot(String aKey)
+    {
+        Integer slot = _slots.get(aKey);
+        return slot != null ? slot : addSlot(aKey);
+    }
+
+    /**
+     * Registers a slot for given key (slot info is published before slot, so any reader of slot can see its info).
+     */
+    private static synchronized int addSlot(String aKey)
+    {
+        // If already registered, just return slot
+        Integer slot = _slots.get(aKey);
+        if (slot != null)
+            return slot;
+
+        // Get flags for key
+        int flags = 0;
+        switch (aKey) {
+            case "this": case "idHashCode": flags = SPECIAL_KEY; break;
+            case "Up": case "Running": case "Remaining": case "Row": case "Parent": case "Page": flags = GROUP_KEY; break;
+        }
+
+        // Add key, standard key and flags
+        int index = _slotKeys.length;
+        String stdKeys[] = Arrays.copyOf(_slotStdKeys, index + 1);
+        stdKeys[index] = aKey.length() > 0 ? Key.getStandard(aKey) : aKey;
+        byte slotFlags[] = Arrays.copyOf(_slotFlags, index + 1);
+        slotFlags[index] = (byte) flags;
+        String keys[] = Arrays.copyOf(_slotKeys, index + 1);
+        keys[index] = aKey;
+        _slotStdKeys = stdKeys;
+        _slotFlags = slotFlags;
+        _slotKeys = keys;
+
+        // Add slot and return
+        _slots.put(aKey, index);
+        return index;
+    }
+
+    /**
+     * Returns the key for given slot.
+     */
+    public static String getSlotKey(int aSlot)  { return _slotKeys[aSlot]; }
+
+    /**
+     * Returns the adapter for given object's class (or null if object must use general RMKey.getValue()).
+     */
+    public static RMRecordAdapter getAdapter(Object anObj)
+    {
+        return anObj != null && ReportMill.appServer == null ? _adapters.get(anObj.getClass()) : null;
+    }
+
+    /**
+     * Returns the value for given object and slot (the same value as RMKey.getValue() for slot key).
+     */
+    public static Object getValue(Object anObj, int aSlot)
+    {
+        // Get adapter (if none or special key, use general path)
+        RMRecordAdapter adapter = getAdapter(anObj);
+        if (adapter == null || (_slotFlags[aSlot] & SPECIAL_KEY) != 0)
+            return RMKey.getValue(anObj, _slotKeys[aSlot]);
+
+        // Return value from adapter
+        return adapter.get(anObj, aSlot);
+    }
+
+    /**
+     * Creates the adapter for given class.
+     */
+    private static RMRecordAdapter createAdapter(Class<?> aClass)
+    {
+        // Handle Sets and arrays: these are converted to List by general path
+        if (Set.class.isAssignableFrom(aClass) || aClass.isArray())
+            return null;
+
+        // Handle Map
+        if (Map.class.isAssignableFrom(aClass))
+            return MAP_ADAPTER;
+
+        // Handle RMGroup (and Running group, compact group leaf and view), then any other RMKey.Get
+        if (aClass == RMGroup.class || aClass == RMGroup.Running.class || aClass == RMGroup.Leaf.class ||
+                aClass == RMGroupView.class)
+            return GROUP_ADAPTER;
+        if (Key.Get.class.isAssignableFrom(aClass))
+            return GET_ADAPTER;
+
+        // Handle ResultSet
+        if (ResultSet.class.isAssignableFrom(aClass))
+            return new ResultSetAdapter();
+
+        // Handle PropObject, Enum (use general path)
+        if (PropObject.class.isAssignableFrom(aClass) || Enum.class.isAssignableFrom(aClass))
+            return GENERAL_ADAPTER;
+
+        // Handle bean
+        return new BeanAdapter(aClass);
+    }
+
+    /**
+     * An adapter for Maps: gets value for key (or standard key).
+     */
+    private static class MapAdapter extends RMRecordAdapter {
+
+        /** Returns map value for slot key (or slot standard key). */
+        public Object get(Object aRecord, int aSlot)
+        {
+            Map<?,?> map = (Map<?,?>) aRecord;
+            String key = _slotKeys[aSlot];
+            Object value = map.get(key);
+            if (value == null) {
+                String stdKey = _slotStdKeys[aSlot];
+                if (stdKey != key)
+                    value = map.get(stdKey);
+            }
+            return ReportMill.convertFromAppServerType(value);
+        }
+    }
+
+    /**
+     * An adapter for RMGroups: heritage keys go to group, other keys go to adapter of group's first sample.
+     */
+    private static class GroupAdapter extends RMRecordAdapter {
+
+        /** Returns group value for slot. */
+        public Object get(Object aRecord, int aSlot)
+        {
+            // If heritage key, have group get it
+            RMGroup group = (RMGroup) aRecord;
+            if ((_slotFlags[aSlot] & GROUP_KEY) != 0)
+                return group.getKeyValue(_slotKeys[aSlot]);
+
+            // Get first sample (if none, have group get value from parent keys)
+            Object sample = group.getFirstSample();
+            if (sample == null)
+                return group.getKeyValue(_slotKeys[aSlot]);
+
+            // Return value for sample
+            return getValue(sample, aSlot);
+        }
+    }
+
+    /**
+     * An adapter for RMKey.Get objects: forwards to getKeyValue().
+     */
+    private static class GetAdapter extends RMRecordAdapter {
+
+        /** Returns getKeyValue() for slot key. */
+        public Object get(Object aRecord, int aSlot)
+        {
+            return ((Key.Get) aRecord).getKeyValue(_slotKeys[aSlot]);
+        }
+    }
+
+    /**
+     * An adapter for objects that need the general path (PropObject, Enum).
+     */
+    private static class GeneralAdapter extends RMRecordAdapter {
+
+        /** Returns RMKey.getValueImpl() for slot key. */
+        public Object get(Object aRecord, int aSlot)
+        {
+            return RMKey.getValueImpl(aRecord, _slotKeys[aSlot]);
+        }
+    }
+
+    /**
+     * An adapter for beans: resolves each slot once to a MethodHandle for getX/isX/x method (or a handle to general
+     * path if there is no such method, like for valueForKey or fields).
+     */
+    private static class BeanAdapter extends RMRecordAdapter {
+
+        // The bean class
+        Class<?>  _class;
+
+        // The getters for slots (copy-on-write, null for unresolved slot)
+        volatile MethodHandle  _getters[] = new MethodHandle[0];
+
+        // The handle for general path
+        private static MethodHandle  GENERAL_GETTER;
+
+        // The type of all getters
+        private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+        // Load general path handle
+        static {
+            try {
+                MethodType type = MethodType.methodType(Object.class, Object.class, String.class);
+                GENERAL_GETTER = MethodHandles.lookup().findStatic(Key.class, "getValueImpl", type);
+            }
+            catch (ReflectiveOperationException e) { throw new RuntimeException(e); }
+        }
+
+        /** Creates a new bean adapter for given class. */
+        BeanAdapter(Class<?> aClass)  { _class = aClass; }
+
+        /** Returns bean getter value for slot. */
+        public Object get(Object aRecord, int aSlot)
+        {
+            // Get getter for slot (resolve if needed)
+            MethodHandle getters[] = _getters;
+            MethodHandle getter = aSlot < getters.length ? getters[aSlot] : null;
+            if (getter == null)
+                getter = resolve(aSlot);
+
+            // Invoke getter (complain and return null on exception, like KeyAccessor)
+            try {
+                Object value = (Object) getter.invokeExact(aRecord);
+                return ReportMill.convertFromAppServerType(value);
+            }
+            catch (Throwable e) {
+                System.err.println("RMRecordAdapter.get: Exception for key " + _slotKeys[aSlot] + " and class " +
+                        _class.getName());
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        /** Resolves getter for slot: getX, isX or x method (same search as KeyAccessor), or general path. */
+        private synchronized MethodHandle resolve(int aSlot)
+        {
+            // If already resolved, just return
+            MethodHandle getters[] = _getters;
+            if (aSlot < getters.length && getters[aSlot] != null)
+                return getters[aSlot];
+
+            // Find method
+            String key = _slotKeys[aSlot], stdKey = _slotStdKeys[aSlot];
+            Method method = ClassUtils.getMethod(_class, "get" + stdKey);
+            if (method == null)
+                method = ClassUtils.getMethod(_class, "is" + stdKey);
+            if (method == null)
+                method = ClassUtils.getMethod(_class, key);
+
+            // Get handle for method (or general path if no method or method isn't accessible)
+            MethodHandle getter = null;
+            if (method != null && method.getReturnType() != void.class) {
+                try { getter = MethodHandles.publicLookup().unreflect(method).asType(GETTER_TYPE); }
+                catch (IllegalAccessException e) { }
+            }
+            if (getter == null)
+                getter = MethodHandles.insertArguments(GENERAL_GETTER, 1, key).asType(GETTER_TYPE);
+
+            // Add getter (copy-on-write) and return
+            getters = Arrays.copyOf(getters, Math.max(getters.length, _slotKeys.length));
+            getters[aSlot] = getter;
+            _getters = getters;
+            return getter;
+        }
+    }
+
+    /**
+     * An adapter for ResultSet rows (the current row): resolves each slot once per ResultSet to a column index.
+     * Like ResultSet itself, a ResultSet row shouldn't be read from multiple threads.
+     */
+    private static class ResultSetAdapter extends RMRecordAdapter {
+
+        // The columns of last ResultSet
+        Columns  _columns;
+
+        /** Returns current row value for slot column. */
+        public Object get(Object aRecord, int aSlot)
+        {
+            // Get columns for ResultSet
+            ResultSet resultSet = (ResultSet) aRecord;
+            Columns columns = _columns;
+            if (columns == null || columns._resultSet != resultSet)
+                _columns = columns = new Columns(resultSet);
+
+            // Get column value (if blob, get bytes)
+            try {
+                int column = columns.getColumn(aSlot);
+                Object value = column > 0 ? resultSet.getObject(column) : null;
+                if (value instanceof Blob)
+                    value = ((Blob) value).getBytes(1, (int) ((Blob) value).length());
+                return value;
+            }
+            catch (SQLException e) {
+                System.err.println("RMRecordAdapter.get: " + e);
+                return null;
+            }
+        }
+
+        /**
+         * The column indexes for slots of a ResultSet.
+         */
+        private static class Columns {
+
+            // The ResultSet
+            ResultSet  _resultSet;
+
+            // The column index for slots (0 for unresolved, -1 for no column)
+            int  _columns[] = new int[0];
+
+            /** Creates columns for given ResultSet. */
+            Columns(ResultSet aResultSet)  { _resultSet = aResultSet; }
+
+            /** Returns the column index for given slot (or -1 if not found). */
+            int getColumn(int aSlot)
+            {
+                // If slot already resolved, return column
+                if (aSlot < _columns.length && _columns[aSlot] != 0)
+                    return _columns[aSlot];
+
+                // Find column for slot key
+                int column;
+                try { column = _resultSet.findColumn(_slotKeys[aSlot]); }
+                catch (SQLException e) { column = -1; }
+
+                // Add column and return
+                if (aSlot >= _columns.length)
+                    _columns = Arrays.copyOf(_columns, _slotKeys.length);
+                return _columns[aSlot] = column;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.base;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * This class is a dataset backed by a JDBC connection and SQL query. Add it to a report model like any list:
+ *
+ *   model.put("Orders", new RMSQLDataset(connection, "SELECT * FROM Orders"));
+ *
+ * Tables fetch their rows through an RMSQLPlanner, so simple filters, grouping order and top-N run in the database
+ * (see getRows()). If a planned query fails, rows are fetched with the original query and Java does all the work.
+ * Any other use of dataset (as a List) fetches all rows of query once.
+ */
+public class RMSQLDataset extends AbstractList<Map<String,Object>> implements RandomAccess {
+
+    // The connection
+    Connection  _connection;
+
+    // The query
+    String  _query;
+
+    // The key paths to read (null for all columns)
+    Collection<String>  _keyPaths;
+
+    // All rows of query (loaded on first list access)
+    List<Map<String,Object>>  _rows;
+
+    // The column labels of query
+    List<String>  _columns;
+
+    /**
+     * Creates a new dataset for given connection and query.
+     */
+    public RMSQLDataset(Connection aConnection, String aQuery)
+    {
+        _connection = aConnection;
+        _query = aQuery;
+    }
+
+    /**
+     * Returns the connection.
+     */
+    public Connection getConnection()  { return _connection; }
+
+    /**
+     * Returns the query.
+     */
+    public String getQuery()  { return _query; }
+
+    /**
+     * Returns the key paths to read (null for all columns).
+     */
+    public Collection<String> getKeyPaths()  { return _keyPaths; }
+
+    /**
+     * Sets the key paths to read (like RMDocument.getReferencedKeys()), so unreferenced columns are skipped.
+     */
+    public void setKeyPaths(Collection<String> theKeyPaths)  { _keyPaths = theKeyPaths; }
+
+    /**
+     * Returns the column labels of query (empty if they can't be read, so nothing is pushed into query).
+     */
+    public synchronized List<String> getColumns()
+    {
+        // If already set, just return
+        if (_columns != null) return _columns;
+
+        // Read column labels from result set meta data of query that fetches no rows
+        List<String> columns = new ArrayList<>();
+        try (Statement statement = _connection.createStatement()) {
+            ResultSet resultSet = statement.executeQuery("SELECT * FROM (" + _query + ") RMQ WHERE 1 = 0");
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            for (int i = 1, iMax = metaData.getColumnCount(); i <= iMax; i++) {
+                String column = metaData.getColumnLabel(i);
+                columns.add(column != null ? column : metaData.getColumnName(i));
+            }
+            resultSet.close();
+        }
+
+        // Complain and clear columns
+        catch (Exception e) {
+            System.err.println("RMSQLDataset.getColumns: " + e + " for query: " + _query);
+            columns.clear();
+        }
+
+        // Set and return
+        return _columns = columns;
+    }
+
+    /**
+     * Returns a plan for given grouper and filter key (either can be null), for this dataset's columns.
+     */
+    public RMSQLPlanner getPlan(RMGrouper aGrouper, String aFilterKey)
+    {
+        return new RMSQLPlanner(aGrouper, aFilterKey, getColumns());
+    }
+
+    /**
+     * Returns the rows for given plan (all rows if plan is null or empty). If planned query fails, plan is cleared and
+     * all rows are returned.
+     */
+    public List<Map<String,Object>> getRows(RMSQLPlanner aPlan)
+    {
+        // If no plan, return all rows
+        if (aPlan == null || aPlan.isEmpty())
+            return getRows();
+
+        // Execute planned query
+        String query = aPlan.getSQL(_query);
+        try { return executeQuery(query, aPlan.getMaxRows()); }
+
+        // If failed, complain, clear plan and return all rows
+        catch (SQLException e) {
+            System.err.println("RMSQLDataset.getRows: " + e + " for query: " + query + " (using original query)");
+            aPlan.clear();
+            return getRows();
+        }
+    }
+
+    /**
+     * Returns all rows of query (fetched once).
+     */
+    public synchronized List<Map<String,Object>> getRows()
+    {
+        // If already set, just return
+        if (_rows != null) return _rows;
+
+        // Execute query (if failed, complain and use empty list)
+        try { _rows = executeQuery(_query, 0); }
+        catch (SQLException e) {
+            System.err.println("RMSQLDataset.getRows: " + e + " for query: " + _query);
+            _rows = new ArrayList<>();
+        }
+
+        // Return
+        return _rows;
+    }
+
+    /**
+     * Executes given query and returns rows (up to given max rows, if greater than zero).
+     */
+    protected List<Map<String,Object>> executeQuery(String aQuery, int aMaxRows) throws SQLException
+    {
+        try (Statement statement = _connection.createStatement()) {
+            if (aMaxRows > 0)
+                statement.setMaxRows(aMaxRows);
+            ResultSet resultSet = statement.executeQuery(aQuery);
+            return RMSQLUtils.getMaps(resultSet, aMaxRows, _keyPaths);
+        }
+    }
+
+    /**
+     * List method - returns the row at given index.
+     */
+    public Map<String,Object> get(int anIndex)  { return getRows().get(anIndex); }
+
+    /**
+     * List method - returns the number of rows.
+     */
+    public int size()  { return getRows().size(); }
+}
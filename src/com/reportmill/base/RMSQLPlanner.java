@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.base;
+import java.math.BigDecimal;
+import java.util.*;
+import snap.util.Key;
+
+/**
+ * This class plans how much of a table's filter, grouping sorts and top-N can be pushed into the SQL query of an
+ * RMSQLDataset, so the database does the work instead of Java. Only plain references to the query's columns (keys that
+ * exactly match a result column label) are pushed:
+ *
+ *   - Filter: comparisons of a column with a number literal, combined with && || and !, become a WHERE clause
+ *     (written to match RMSort.Compare() null semantics, where null is less than any number). If the whole filter
+ *     is pushed, isFilterPushed() returns true and the caller can skip the Java filter.
+ *   - Order: leading grouping keys (for groupings that sort their groups) and leaf sort keys become ORDER BY. Java
+ *     grouping and sorting still run, so this never changes results, it just hands Java pre-ordered rows.
+ *   - Top-N: a single grouping with a top-N sort on a column (without "Others") becomes ORDER BY on that column
+ *     (nulls placed as RMSort.Compare() would) and a max rows limit.
+ */
+public class RMSQLPlanner {
+
+    // The WHERE clause (null if filter not pushed)
+    String  _where;
+
+    // The ORDER BY terms
+    List<String>  _orderBy = new ArrayList<>();
+
+    // The max rows (0 for unlimited)
+    int  _maxRows;
+
+    // The number of leading groupings that rows are ordered by
+    int  _orderedGroupingCount;
+
+    // Whether filter was pushed
+    boolean  _filterPushed;
+
+    // Whether there is a filter
+    boolean  _hasFilter;
+
+    // The column labels of query
+    Collection<String>  _columns;
+
+    /**
+     * Creates a plan for given grouper and filter key (either can be null) and given query column labels.
+     */
+    public RMSQLPlanner(RMGrouper aGrouper, String aFilterKey, Collection<String> theColumns)
+    {
+        // Set columns
+        _columns = theColumns;
+
+        // Plan filter
+        _hasFilter = aFilterKey != null && aFilterKey.length() > 0;
+        if (_hasFilter) {
+            _where = getWhere(RMKeyChain.getKeyChain(aFilterKey));
+            _filterPushed = _where != null;
+        }
+        else _filterPushed = true;
+
+        // Plan order and top-N
+        if (aGrouper != null && aGrouper.getGroupingCount() > 0)
+            planOrder(aGrouper);
+    }
+
+    /**
+     * Returns whether the whole filter was pushed into query (so Java filter can be skipped).
+     */
+    public boolean isFilterPushed()  { return _filterPushed; }
+
+    /**
+     * Returns the WHERE clause (without WHERE) or null if none.
+     */
+    public String getWhere()  { return _where; }
+
+    /**
+     * Returns the ORDER BY terms.
+     */
+    public List<String> getOrderBy()  { return _orderBy; }
+
+    /**
+     * Returns the max number of rows to fetch (0 for unlimited).
+     */
+    public int getMaxRows()  { return _maxRows; }
+
+    /**
+     * Returns the number of leading groupings whose keys the fetched rows are ordered by.
+     */
+    public int getOrderedGroupingCount()  { return _orderedGroupingCount; }
+
+    /**
+     * Returns whether plan changes given query.
+     */
+    public boolean isEmpty()
+    {
+        return _where == null && _orderBy.isEmpty() && _maxRows == 0;
+    }
+
+    /**
+     * Clears plan, so nothing is pushed and Java does all the work (like when planned query fails).
+     */
+    public void clear()
+    {
+        _where = null;
+        _orderBy.clear();
+        _maxRows = 0;
+        _orderedGroupingCount = 0;
+        _filterPushed = !_hasFilter;
+    }
+
+    /**
+     * Returns the given query rewritten for this plan (as a subquery, so given query can be any SELECT).
+     */
+    public String getSQL(String aQuery)
+    {
+        // If nothing pushed, just return query
+        if (_where == null && _orderBy.isEmpty())
+            return aQuery;
+
+        // Wrap query and add WHERE, ORDER BY
+        StringBuilder sb = new StringBuilder("SELECT * FROM (").append(aQuery).append(") RMQ");
+        if (_where != null)
+            sb.append(" WHERE ").append(_where);
+        for (int i = 0; i < _orderBy.size(); i++)
+            sb.append(i == 0 ? " ORDER BY " : ", ").append(_orderBy.get(i));
+        return sb.toString();
+    }
+
+    /**
+     * Plans ORDER BY terms and top-N limit for given grouper.
+     */
+    private void planOrder(RMGrouper aGrouper)
+    {
+        // If only filter is pushed and single grouping has top-N on a column without "Others", order by it (and all
+        // other columns, so ties at limit are deterministic) and limit
+        int count = aGrouper.getGroupingCount();
+        RMGrouping leaf = aGrouper.getGroupingLast();
+        RMTopNSort topN = leaf.getTopNSort();
+        if (topN.getCount() > 0) {
+            String column = getColumn(topN.getKey());
+            if (count == 1 && column != null && !topN.getIncludeOthers() && _filterPushed && isColumnsOrderable()) {
+                boolean descend = topN.getOrder() == RMSort.ORDER_DESCEND;
+                _orderBy.add("CASE WHEN " + column + " IS NULL THEN " + (descend ? "1" : "0") + " ELSE " +
+                        (descend ? "0" : "1") + " END");
+                _orderBy.add(column + (descend ? " DESC" : " ASC"));
+                for (String col : _columns)
+                    if (!col.equals(column))
+                        _orderBy.add(col);
+                _maxRows = topN.getCount();
+            }
+            return;
+        }
+
+        // Add leading grouping keys (stop at first grouping that doesn't sort groups, since group order is then
+        // order of first appearance, or whose key isn't a column)
+        for (int i = 0; i < count - 1; i++) {
+            RMGrouping grouping = aGrouper.getGrouping(i);
+            String column = getColumn(grouping.getKey());
+            if (column == null || grouping.getSortCount() == 0 || grouping.getTopNSort().getCount() > 0)
+                return;
+            _orderBy.add(column);
+            _orderedGroupingCount++;
+        }
+
+        // Add leaf sort keys (stop at first that isn't a column)
+        for (RMSort sort : leaf.getSorts()) {
+            String column = getColumn(sort.getKey());
+            if (column == null)
+                return;
+            _orderBy.add(column + (sort.getOrder() == RMSort.ORDER_DESCEND ? " DESC" : " ASC"));
+        }
+    }
+
+    /**
+     * Returns a WHERE clause for given filter key chain (or null if it can't be pushed).
+     */
+    private String getWhere(RMKeyChain aKeyChain)
+    {
+        switch (aKeyChain.getOp()) {
+
+            // Handle And, Or
+            case And:
+            case Or: {
+                String w1 = getWhere(aKeyChain.getChildKeyChain(0));
+                String w2 = getWhere(aKeyChain.getChildKeyChain(1));
+                if (w1 == null || w2 == null)
+                    return null;
+                return "(" + w1 + (aKeyChain.getOp() == RMKeyChain.Op.And ? " AND " : " OR ") + w2 + ")";
+            }
+
+            // Handle Not
+            case Not: {
+                String w1 = getWhere(aKeyChain.getChildKeyChain(0));
+                return w1 != null ? "NOT " + w1 : null;
+            }
+
+            // Handle compare ops
+            case Equal:
+            case NotEqual:
+            case GreaterThan:
+            case LessThan:
+            case GreaterThanOrEqual:
+            case LessThanOrEqual:
+                return getWhereCompare(aKeyChain);
+
+            // Anything else can't be pushed
+            default: return null;
+        }
+    }
+
+    /**
+     * Returns a WHERE clause for given compare of column with number literal (or null if not column and number).
+     * Null column values compare as less than any number (like RMSort.Compare()), and result is never SQL unknown
+     * so that NOT works like it does in Java.
+     */
+    private String getWhereCompare(RMKeyChain aKeyChain)
+    {
+        // Get column and number operands (if literal is first, flip op)
+        RMKeyChain.Op op = aKeyChain.getOp();
+        RMKeyChain kc1 = aKeyChain.getChildKeyChain(0), kc2 = aKeyChain.getChildKeyChain(1);
+        if (kc1.getOp() == RMKeyChain.Op.Literal) {
+            RMKeyChain kc = kc1; kc1 = kc2; kc2 = kc;
+            op = getFlipped(op);
+        }
+        String column = kc1.getOp() == RMKeyChain.Op.Key ? getColumn(kc1.getValueString()) : null;
+        String number = kc2.getOp() == RMKeyChain.Op.Literal ? getNumber(kc2.getValue()) : null;
+        if (column == null || number == null)
+            return null;
+
+        // Return compare, with nulls included for ops where null is true
+        switch (op) {
+            case Equal: return "(" + column + " IS NOT NULL AND " + column + " = " + number + ")";
+            case GreaterThan: return "(" + column + " IS NOT NULL AND " + column + " > " + number + ")";
+            case GreaterThanOrEqual: return "(" + column + " IS NOT NULL AND " + column + " >= " + number + ")";
+            case NotEqual: return "(" + column + " IS NULL OR " + column + " <> " + number + ")";
+            case LessThan: return "(" + column + " IS NULL OR " + column + " < " + number + ")";
+            case LessThanOrEqual: return "(" + column + " IS NULL OR " + column + " <= " + number + ")";
+            default: return null;
+        }
+    }
+
+    /**
+     * Returns the compare op for swapped operands.
+     */
+    private static RMKeyChain.Op getFlipped(RMKeyChain.Op anOp)
+    {
+        switch (anOp) {
+            case GreaterThan: return RMKeyChain.Op.LessThan;
+            case LessThan: return RMKeyChain.Op.GreaterThan;
+            case GreaterThanOrEqual: return RMKeyChain.Op.LessThanOrEqual;
+            case LessThanOrEqual: return RMKeyChain.Op.GreaterThanOrEqual;
+            default: return anOp;
+        }
+    }
+
+    /**
+     * Returns the column for given key, if key is a plain identifier (and not a getX/isX accessor name) that exactly
+     * matches a query column label.
+     */
+    private String getColumn(String aKey)
+    {
+        // If not identifier or not column, return null
+        if (!isIdentifier(aKey) || _columns == null || !_columns.contains(aKey))
+            return null;
+
+        // If accessor name (like getName), return null
+        if (!Key.getStandard(aKey).equalsIgnoreCase(aKey))
+            return null;
+        return aKey;
+    }
+
+    /**
+     * Returns whether all query columns can be used in ORDER BY as is (they're all plain identifiers).
+     */
+    private boolean isColumnsOrderable()
+    {
+        for (String column : _columns)
+            if (!isIdentifier(column))
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns whether given string is a plain identifier (letters, digits and underscores).
+     */
+    private static boolean isIdentifier(String aString)
+    {
+        if (aString == null || aString.length() == 0 || !Character.isJavaIdentifierStart(aString.charAt(0)))
+            return false;
+        for (int i = 1; i < aString.length(); i++)
+            if (!Character.isLetterOrDigit(aString.charAt(i)) && aString.charAt(i) != '_')
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns SQL number literal for given literal value (or null if not a number).
+     */
+    private static String getNumber(Object aValue)
+    {
+        if (aValue instanceof BigDecimal)
+            return ((BigDecimal) aValue).toPlainString();
+        if (aValue instanceof Integer || aValue instanceof Long || aValue instanceof Short || aValue instanceof Byte)
+            return aValue.toString();
+        if (aValue instanceof Number) {
+            double value = ((Number) aValue).doubleValue();
+            return Double.isNaN(value) || Double.isInfinite(value) ? null : BigDecimal.valueOf(value).toPlainString();
+        }
+        return null;
+    }
+
+    /**
+     * Returns a string representation of plan.
+     */
+    public String toString()
+    {
+        return "RMSQLPlanner { Where=" + _where + ", OrderBy=" + _orderBy + ", MaxRows=" + _maxRows + " }";
+    }
+}
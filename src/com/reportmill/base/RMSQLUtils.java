@@ -18,6 +18,18 @@ public class RMSQLUtils {
      * @param aLimit     the fetch limit for the list of maps. Use -1, 0 or Integer.MAX_VALUE for unlimited.
      */
     public static List<Map<String,Object>> getMaps(ResultSet aResultSet, int aLimit)
+    {
+        return getMaps(aResultSet, aLimit, null);
+    }
+
+    /**
+     * Returns a list of maps for a given ResultSet, with only the columns named in given key paths.
+     *
+     * @param aResultSet  the result set to be converted to a list of maps.
+     * @param aLimit      the fetch limit for the list of maps. Use -1, 0 or Integer.MAX_VALUE for unlimited.
+     * @param theKeyPaths the referenced key paths (like RMDocument.getReferencedKeys()) or null for all columns.
+     */
+    public static List<Map<String,Object>> getMaps(ResultSet aResultSet, int aLimit, Collection<String> theKeyPaths)
     {
         // Adjust limit
         if (aLimit <= 0)
@@ -39,6 +51,24 @@ public class RMSQLUtils {
             // Get column count
             int columnCount = metaData.getColumnCount();
 
+            // Get column keys (null for columns that aren't referenced)
+            Set<String> projection = theKeyPaths != null ? RMKeyChain.getKeyNames(theKeyPaths) : null;
+            String keys[] = new String[columnCount + 1];
+            for (int i = 1; i <= columnCount; i++) {
+                String key = null;
+                try {
+                    key = metaData.getColumnLabel(i);
+                    if (key == null)
+                        key = metaData.getColumnName(i);
+                }
+                catch (Exception e) { }
+                if (projection == null || key != null && projection.contains(key))
+                    keys[i] = key;
+            }
+
+            // Create pool for repeated values
+            RMValuePool pool = new RMValuePool();
+
             // Iterate over result set and load each record into map
             while (aResultSet.next() && list.size() < aLimit) {
 
@@ -48,14 +78,10 @@ public class RMSQLUtils {
                 // Iterate over columns
                 for (int i = 1; i <= columnCount; i++) {
 
-                    // Get column key
-                    String key = null;
-                    try {
-                        key = metaData.getColumnLabel(i);
-                        if (key == null)
-                            key = metaData.getColumnName(i);
-                    }
-                    catch (Exception e) { }
+                    // Get column key (skip column if not referenced)
+                    String key = keys[i];
+                    if (key == null)
+                        continue;
 
                     // Get column value
                     Object val = null;
@@ -65,9 +91,9 @@ public class RMSQLUtils {
                     if (val instanceof Blob)
                         val = ((Blob) val).getBytes(1, (int) ((Blob) val).length());
 
-                    // If key and value are non-null, add to map
+                    // If key and value are non-null, add to map (value pooled)
                     if (key != null && val != null)
-                        map.put(key, val);
+                        map.put(key, pool.intern(key, val));
                 }
 
                 // Add record map to list
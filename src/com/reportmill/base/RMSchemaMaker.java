@@ -44,6 +44,15 @@ public class RMSchemaMaker {
     // A map of property classes
     Map<Property, Class> _propertyClasses = new HashMap();
 
+    // The number of leading elements (per parent and element name) whose values are sampled for XML type inference
+    int _sampleSize = 1000;
+
+    // The stride of elements after leading elements whose values are sampled for XML type inference
+    int _sampleStride = 100;
+
+    // Whether last XML schema skipped values (so types should be confirmed when read)
+    boolean _sampled;
+
     /**
      * Creates a new schema maker.
      */
@@ -79,6 +88,48 @@ public class RMSchemaMaker {
         _breadthLimit = aLimit;
     }
 
+    /**
+     * Returns the number of leading elements (per parent and element name) whose values are sampled to infer XML
+     * property types (zero or less for full inference).
+     */
+    public int getSampleSize()
+    {
+        return _sampleSize;
+    }
+
+    /**
+     * Sets the number of leading elements (per parent and element name) whose values are sampled to infer XML
+     * property types (zero or less for full inference).
+     */
+    public void setSampleSize(int aValue)
+    {
+        _sampleSize = aValue;
+    }
+
+    /**
+     * Returns the stride of elements after the leading elements whose values are also sampled (zero for none).
+     */
+    public int getSampleStride()
+    {
+        return _sampleStride;
+    }
+
+    /**
+     * Sets the stride of elements after the leading elements whose values are also sampled (zero for none).
+     */
+    public void setSampleStride(int aValue)
+    {
+        _sampleStride = aValue;
+    }
+
+    /**
+     * Returns whether last XML schema was inferred from a sample of values (so readers should confirm types).
+     */
+    public boolean isSampled()
+    {
+        return _sampled;
+    }
+
     /**
      * Returns whether to only use getX/isX accessor methods (as opposed to any method returning a value).
      */
@@ -504,19 +555,21 @@ public class RMSchemaMaker {
     }
 
     /**
-     * Creates and returns a schema for a given xml element tree.
+     * Creates and returns a schema for a given xml element tree. Structure (entities, properties, relations) comes
+     * from all elements, but property types are only inferred from a sample of values (see getSampleSize()).
      */
     public Schema getSchema(XMLElement anElement)
     {
+        _sampled = false;
         Schema schema = new Schema(anElement.getName());  // Create schema
-        getSchema(anElement, schema);                     // Build schema
+        getSchema(anElement, schema, true);               // Build schema
         return schema;                                    // Return schema
     }
 
     /**
-     * Builds out schema from the given XML element (recursive).
+     * Builds out schema from the given XML element (recursive), sampling values for types if requested.
      */
-    private void getSchema(XMLElement anElement, Schema aSchema)
+    private void getSchema(XMLElement anElement, Schema aSchema, boolean isSample)
     {
         // Get element name
         String elementName = anElement.getName();
@@ -537,13 +590,19 @@ public class RMSchemaMaker {
             Property property = entity.getAttribute(name);
 
             // If property is hasn't been encountered yet, create it
-            if (property == null)
+            boolean isNew = property == null;
+            if (isNew)
                 entity.addProperty(property = new Property(name, Property.Type.Date));
 
-            // Set property type from sample string
-            property.setTypeFromSample(attr.getValue());
+            // Set property type from sample string (if sampling or property is new)
+            if (isSample || isNew)
+                property.setTypeFromSample(attr.getValue());
+            else _sampled = true;
         }
 
+        // Create map for element name counts
+        Map<String,Integer> counts = anElement.size() > 0 ? new HashMap<>() : null;
+
         // Iterate over elements - they can either be attributes, relations or tomany-relations
         for (int i = 0, iMax = anElement.size(); i < iMax; i++) {
             XMLElement elmt = anElement.get(i);
@@ -552,8 +611,13 @@ public class RMSchemaMaker {
             String name = elmt.getName();
             Property property = entity.getProperty(name);
 
+            // Get index of element among elements with same name and whether it is sampled
+            int index = counts.merge(name, 1, Integer::sum) - 1;
+            boolean isElementSample = isSample && isSampleIndex(index);
+
             // If property hasn't been encountered yet, create it
-            if (property == null)
+            boolean isNew = property == null;
+            if (isNew)
                 entity.addProperty(property = new Property(name, Property.Type.Date));
 
             // If property is currently an attribute, see if it needs to be promoted to relation
@@ -561,7 +625,9 @@ public class RMSchemaMaker {
 
                 // If current element indeed has no children or attributes, update property type for element text & continue
                 if (elmt.size() + elmt.getAttributeCount() == 0) {
-                    property.setTypeFromSample(elmt.getValue());
+                    if (isElementSample || isNew)
+                        property.setTypeFromSample(elmt.getValue());
+                    else _sampled = true;
                     continue;
                 }
 
@@ -570,15 +636,23 @@ public class RMSchemaMaker {
                 property.setRelationEntityName(name);
             }
 
-            // Since property is a relation, see if it needs to be promoted to 'to-many'
-            if (!property.isToMany() && anElement.getElementCount(name) > 1)
+            // Since property is a relation, see if it needs to be promoted to 'to-many' (if second element with name)
+            if (!property.isToMany() && index > 0)
                 property.setType(Property.Type.RelationList);
 
             // Recurse into relation element
-            getSchema(elmt, aSchema);
+            getSchema(elmt, aSchema, isElementSample);
         }
     }
 
+    /**
+     * Returns whether element at given index (among elements with same name) is sampled for types.
+     */
+    private boolean isSampleIndex(int anIndex)
+    {
+        return _sampleSize <= 0 || anIndex < _sampleSize || _sampleStride > 0 && anIndex % _sampleStride == 0;
+    }
+
     /**
      * Returns whether key is valid key identifier.
      */
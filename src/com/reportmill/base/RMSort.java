@@ -3,6 +3,7 @@
  */
 package com.reportmill.base;
 import java.util.*;
+import java.util.concurrent.*;
 import snap.util.*;
 
 /**
@@ -214,6 +215,89 @@ public class RMSort implements Comparator, Cloneable, XMLArchiver.Archivable {
         Collections.sort(aList, new RMSortsComparator(aSortList));
     }
 
+    /**
+     * Sorts the given list by the given list of sorts, using parallel sort if requested (both sorts are stable, so
+     * result is the same).
+     */
+    public static void sort(List aList, List<RMSort> aSortList, boolean isParallel)
+    {
+        // If not parallel, do normal sort
+        if (!isParallel) {
+            sort(aList, aSortList);
+            return;
+        }
+
+        // Sort array in parallel (with caller's key assignments, read-only) and copy back to list
+        Object array[] = aList.toArray();
+        Comparator comparator = new RMSortsComparator(aSortList);
+        Map assignments = Collections.unmodifiableMap(new HashMap(RMKeyChain.getAssignments()));
+        ForkJoinPool.commonPool().invoke(new ParallelSort(array, new Object[array.length], 0, array.length, comparator,
+                assignments));
+        for (int i = 0; i < array.length; i++)
+            aList.set(i, array[i]);
+    }
+
+    /**
+     * A fork/join stable merge sort (Arrays.parallelSort() doesn't keep order of equal elements in all JVMs).
+     */
+    private static class ParallelSort extends RecursiveAction {
+
+        // The array, temp array, range and comparator
+        Object  _array[], _temp[];
+        int  _start, _end;
+        Comparator  _comparator;
+
+        // The key assignments of thread that started sort
+        Map  _assignments;
+
+        // The max range size sorted directly (with stable Arrays.sort)
+        private static final int CHUNK_SIZE = 8192;
+
+        /** Creates a new sort task for given array range. */
+        ParallelSort(Object theArray[], Object theTemp[], int aStart, int anEnd, Comparator aComparator, Map theAssigns)
+        {
+            _array = theArray;
+            _temp = theTemp;
+            _start = aStart;
+            _end = anEnd;
+            _comparator = aComparator;
+            _assignments = theAssigns;
+        }
+
+        /** Sorts range with caller's key assignments. */
+        protected void compute()
+        {
+            Map old = RMKeyChain.setAssignments(_assignments);
+            try { sort(); }
+            finally { RMKeyChain.setAssignments(old); }
+        }
+
+        /** Sorts range: sorts halves in parallel, then merges (taking from first half on ties to keep stable). */
+        private void sort()
+        {
+            // If small range, just sort
+            if (_end - _start <= CHUNK_SIZE) {
+                Arrays.sort(_array, _start, _end, _comparator);
+                return;
+            }
+
+            // Sort halves in parallel
+            int mid = (_start + _end) >>> 1;
+            invokeAll(new ParallelSort(_array, _temp, _start, mid, _comparator, _assignments),
+                    new ParallelSort(_array, _temp, mid, _end, _comparator, _assignments));
+
+            // Merge halves (just return if already in order)
+            if (_comparator.compare(_array[mid - 1], _array[mid]) <= 0)
+                return;
+            System.arraycopy(_array, _start, _temp, _start, mid - _start);
+            int i = _start, j = mid, k = _start;
+            while (i < mid && j < _end)
+                _array[k++] = _comparator.compare(_array[j], _temp[i]) < 0 ? _array[j++] : _temp[i++];
+            while (i < mid)
+                _array[k++] = _temp[i++];
+        }
+    }
+
     /**
      * A comparator that compares with a given list of sorts.
      */
@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.base;
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * This class is a group of leaf groups whose objects are a range of records in an RMSpillList, built by
+ * RMExternalSort. Leaf groups are created as they are accessed and then kept, so a leaf group is the same object for
+ * the life of the group (pagination matches rows to groups by identity). Leaf groups read their record as accessed and
+ * only hold it softly, so records can be dropped from memory and read again.
+ *
+ * Any change to the group (add, remove, set, sort, etc.) first loads all its leaf groups into the group's own list,
+ * after which it behaves like a normal RMGroup.
+ */
+public class RMSpillGroup extends RMGroup {
+
+    // The records and range of this group's objects
+    RMSpillList  _records;
+    int  _start, _end;
+
+    // Whether leaf groups have been loaded into group's own list
+    boolean  _loaded;
+
+    // The leaf groups created so far by index
+    Leaf  _leaves[];
+
+    // A list view of this group's leaf groups (while not loaded)
+    List<Object>  _view = new AbstractList<Object>() {
+        public Object get(int anIndex)  { return getLeaf(anIndex); }
+        public int size()  { return _end - _start; }
+    };
+
+    /**
+     * Creates a new spill group for given records range and leaf key.
+     */
+    public RMSpillGroup(RMSpillList theRecords, int aStart, int anEnd, String aKey)
+    {
+        _records = theRecords;
+        _start = aStart;
+        _end = anEnd;
+        _key = aKey;
+    }
+
+    /**
+     * Returns the records.
+     */
+    public RMSpillList getRecords()  { return _records; }
+
+    /**
+     * Returns the start index of group's records.
+     */
+    public int getStart()  { return _start; }
+
+    /**
+     * Returns the end index of group's records.
+     */
+    public int getEnd()  { return _end; }
+
+    /**
+     * Returns whether leaf groups have been loaded into group's own list.
+     */
+    public boolean isLoaded()  { return _loaded; }
+
+    /**
+     * Returns the leaf group at given index (creating it if not yet created).
+     */
+    private synchronized RMGroup getLeaf(int anIndex)
+    {
+        // Check index
+        if (anIndex < 0 || anIndex >= _end - _start)
+            throw new IndexOutOfBoundsException("Index: " + anIndex + ", Size: " + (_end - _start));
+
+        // Get leaf group (create leaves array if needed)
+        if (_leaves == null)
+            _leaves = new Leaf[_end - _start];
+        Leaf leaf = _leaves[anIndex];
+
+        // If not yet created, create leaf group for record and add to leaves
+        if (leaf == null) {
+            leaf = new Leaf(_records, _start + anIndex, anIndex);
+            leaf._parent = this;
+            leaf._isLeaf = true;
+            _leaves[anIndex] = leaf;
+        }
+
+        // Return leaf group
+        return leaf;
+    }
+
+    /**
+     * Loads all leaf groups into group's own list (so group can be changed).
+     */
+    public synchronized void load()
+    {
+        if (_loaded) return;
+        Object leaves[] = _view.toArray();
+        _loaded = true;
+        super.addAll(Arrays.asList(leaves));
+        _leaves = null;
+    }
+
+    /** List method - returns number of leaf groups. */
+    public int size()  { return _loaded ? super.size() : _view.size(); }
+
+    /** List method - returns whether group is empty. */
+    public boolean isEmpty()  { return _loaded ? super.isEmpty() : _view.isEmpty(); }
+
+    /** List method - returns leaf group at index. */
+    public Object get(int anIndex)  { return _loaded ? super.get(anIndex) : getLeaf(anIndex); }
+
+    /** List method - returns whether group contains given object. */
+    public boolean contains(Object anObj)  { return _loaded ? super.contains(anObj) : _view.contains(anObj); }
+
+    /** List method - returns index of given object. */
+    public int indexOf(Object anObj)  { return _loaded ? super.indexOf(anObj) : _view.indexOf(anObj); }
+
+    /** List method - returns last index of given object. */
+    public int lastIndexOf(Object anObj)  { return _loaded ? super.lastIndexOf(anObj) : _view.lastIndexOf(anObj); }
+
+    /** List method - returns array of leaf groups. */
+    public Object[] toArray()  { return _loaded ? super.toArray() : _view.toArray(); }
+
+    /** List method - returns array of leaf groups. */
+    public Object[] toArray(Object anArray[])  { return _loaded ? super.toArray(anArray) : _view.toArray(anArray); }
+
+    /** List method - returns iterator. */
+    public Iterator iterator()  { return _loaded ? super.iterator() : _view.iterator(); }
+
+    /** List method - returns list iterator. */
+    public ListIterator listIterator()  { return _loaded ? super.listIterator() : _view.listIterator(); }
+
+    /** List method - returns list iterator. */
+    public ListIterator listIterator(int anIndex)
+    {
+        return _loaded ? super.listIterator(anIndex) : _view.listIterator(anIndex);
+    }
+
+    /** List method - returns sub list (a copy, while not loaded). */
+    public List subList(int aStart, int anEnd)
+    {
+        return _loaded ? super.subList(aStart, anEnd) : new ArrayList(_view.subList(aStart, anEnd));
+    }
+
+    /** List method - iterates over leaf groups. */
+    public void forEach(Consumer anAction)
+    {
+        if (_loaded) super.forEach(anAction);
+        else _view.forEach(anAction);
+    }
+
+    /** List method - returns spliterator. */
+    public Spliterator spliterator()  { return _loaded ? super.spliterator() : _view.spliterator(); }
+
+    /** List method - loads and adds. */
+    public boolean add(Object anObj)  { load(); return super.add(anObj); }
+
+    /** List method - loads and adds. */
+    public void add(int anIndex, Object anObj)  { load(); super.add(anIndex, anObj); }
+
+    /** List method - loads and adds all. */
+    public boolean addAll(Collection aList)  { load(); return super.addAll(aList); }
+
+    /** List method - loads and adds all. */
+    public boolean addAll(int anIndex, Collection aList)  { load(); return super.addAll(anIndex, aList); }
+
+    /** List method - loads and sets. */
+    public Object set(int anIndex, Object anObj)  { load(); return super.set(anIndex, anObj); }
+
+    /** List method - loads and removes. */
+    public Object remove(int anIndex)  { load(); return super.remove(anIndex); }
+
+    /** List method - loads and removes. */
+    public boolean remove(Object anObj)  { load(); return super.remove(anObj); }
+
+    /** List method - loads and removes all. */
+    public boolean removeAll(Collection aList)  { load(); return super.removeAll(aList); }
+
+    /** List method - loads and retains all. */
+    public boolean retainAll(Collection aList)  { load(); return super.retainAll(aList); }
+
+    /** List method - loads and removes if. */
+    public boolean removeIf(Predicate aFilter)  { load(); return super.removeIf(aFilter); }
+
+    /** List method - loads and removes range. */
+    protected void removeRange(int aStart, int anEnd)  { load(); super.removeRange(aStart, anEnd); }
+
+    /** List method - loads and replaces all. */
+    public void replaceAll(UnaryOperator anOp)  { load(); super.replaceAll(anOp); }
+
+    /** List method - loads and sorts. */
+    public void sort(Comparator aComparator)  { load(); super.sort(aComparator); }
+
+    /** List method - clears (without loading). */
+    public void clear()
+    {
+        synchronized (this) { _loaded = true; _leaves = null; }
+        super.clear();
+    }
+
+    /**
+     * Standard clone implementation (a spill group for same records, while not loaded).
+     */
+    public RMGroup clone()
+    {
+        // If loaded, do normal version
+        if (_loaded) return super.clone();
+
+        // Create copy for same records
+        RMSpillGroup copy = new RMSpillGroup(_records, _start, _end, _key);
+        copy._value = _value;
+        copy._parent = _parent;
+        copy._isTopNOthers = _isTopNOthers;
+        return copy;
+    }
+
+    /**
+     * Clone deep implementation (leaf groups are created per group, so same as clone, while not loaded).
+     */
+    public RMGroup cloneDeep()
+    {
+        return _loaded ? super.cloneDeep() : clone();
+    }
+
+    /**
+     * Clone empty implementation (without reading records, while not loaded).
+     */
+    public RMGroup cloneEmpty()
+    {
+        // If loaded, do normal version
+        if (_loaded) return super.cloneEmpty();
+
+        // Create empty group with empty leaf groups
+        RMGroup copy = new RMGroup();
+        copy._key = _key;
+        copy._parent = _parent;
+        copy._isTopNOthers = _isTopNOthers;
+        for (int i = 0, iMax = size(); i < iMax; i++) {
+            RMGroup leaf = new RMGroup();
+            leaf._isLeaf = true;
+            copy.add(leaf);
+        }
+        return copy;
+    }
+
+    /**
+     * A leaf group of a spill group, which knows its index while spill group isn't loaded and reads its record as
+     * accessed (holding it softly, until leaf group is changed).
+     */
+    private static class Leaf extends RMGroup {
+
+        // The records and index of this leaf group's record
+        RMSpillList  _records;
+        int  _recordIndex;
+
+        // The index in spill group
+        int  _index;
+
+        // The record (while not copied into group's own list)
+        SoftReference<Map<String,Object>>  _record;
+
+        // Whether record has been copied into group's own list
+        boolean  _copied;
+
+        /** Creates a new leaf group for given record and index. */
+        Leaf(RMSpillList theRecords, int aRecordIndex, int anIndex)
+        {
+            _records = theRecords;
+            _recordIndex = aRecordIndex;
+            _index = anIndex;
+        }
+
+        /** Returns the index of this group in its parent. */
+        public int index()
+        {
+            RMGroup parent = getParent();
+            if (parent instanceof RMSpillGroup && !((RMSpillGroup) parent)._loaded)
+                return _index;
+            return super.index();
+        }
+
+        /** Returns the record (reading it if not held). */
+        synchronized Map<String,Object> getRecord()
+        {
+            Map<String,Object> record = _record != null ? _record.get() : null;
+            if (record == null)
+                _record = new SoftReference<>(record = _records.get(_recordIndex));
+            return record;
+        }
+
+        /** Returns the record as a list (while not copied). */
+        List getRecordList()  { return Collections.singletonList(getRecord()); }
+
+        /** Copies record into group's own list (so group can be changed). */
+        synchronized void copy()
+        {
+            if (_copied) return;
+            Map<String,Object> record = getRecord();
+            _copied = true;
+            _record = null;
+            super.add(record);
+        }
+
+        /** List method - returns number of objects. */
+        public int size()  { return _copied ? super.size() : 1; }
+
+        /** List method - returns whether group is empty. */
+        public boolean isEmpty()  { return _copied ? super.isEmpty() : false; }
+
+        /** List method - returns object at index. */
+        public Object get(int anIndex)  { return _copied ? super.get(anIndex) : getRecordList().get(anIndex); }
+
+        /** List method - returns whether group contains given object. */
+        public boolean contains(Object anObj)  { return _copied ? super.contains(anObj) : getRecordList().contains(anObj); }
+
+        /** List method - returns index of given object. */
+        public int indexOf(Object anObj)  { return _copied ? super.indexOf(anObj) : getRecordList().indexOf(anObj); }
+
+        /** List method - returns last index of given object. */
+        public int lastIndexOf(Object anObj)
+        {
+            return _copied ? super.lastIndexOf(anObj) : getRecordList().lastIndexOf(anObj);
+        }
+
+        /** List method - returns array of objects. */
+        public Object[] toArray()  { return _copied ? super.toArray() : getRecordList().toArray(); }
+
+        /** List method - returns array of objects. */
+        public Object[] toArray(Object anArray[])
+        {
+            return _copied ? super.toArray(anArray) : getRecordList().toArray(anArray);
+        }
+
+        /** List method - returns iterator. */
+        public Iterator iterator()  { return _copied ? super.iterator() : getRecordList().iterator(); }
+
+        /** List method - returns list iterator. */
+        public ListIterator listIterator()  { return _copied ? super.listIterator() : getRecordList().listIterator(); }
+
+        /** List method - returns list iterator. */
+        public ListIterator listIterator(int anIndex)
+        {
+            return _copied ? super.listIterator(anIndex) : getRecordList().listIterator(anIndex);
+        }
+
+        /** List method - returns sub list (a copy, while not copied). */
+        public List subList(int aStart, int anEnd)
+        {
+            return _copied ? super.subList(aStart, anEnd) : new ArrayList(getRecordList().subList(aStart, anEnd));
+        }
+
+        /** List method - iterates over objects. */
+        public void forEach(Consumer anAction)
+        {
+            if (_copied) super.forEach(anAction);
+            else getRecordList().forEach(anAction);
+        }
+
+        /** List method - returns spliterator. */
+        public Spliterator spliterator()  { return _copied ? super.spliterator() : getRecordList().spliterator(); }
+
+        /** List method - copies and adds. */
+        public boolean add(Object anObj)  { copy(); return super.add(anObj); }
+
+        /** List method - copies and adds. */
+        public void add(int anIndex, Object anObj)  { copy(); super.add(anIndex, anObj); }
+
+        /** List method - copies and adds all. */
+        public boolean addAll(Collection aList)  { copy(); return super.addAll(aList); }
+
+        /** List method - copies and adds all. */
+        public boolean addAll(int anIndex, Collection aList)  { copy(); return super.addAll(anIndex, aList); }
+
+        /** List method - copies and sets. */
+        public Object set(int anIndex, Object anObj)  { copy(); return super.set(anIndex, anObj); }
+
+        /** List method - copies and removes. */
+        public Object remove(int anIndex)  { copy(); return super.remove(anIndex); }
+
+        /** List method - copies and removes. */
+        public boolean remove(Object anObj)  { copy(); return super.remove(anObj); }
+
+        /** List method - copies and removes all. */
+        public boolean removeAll(Collection aList)  { copy(); return super.removeAll(aList); }
+
+        /** List method - copies and retains all. */
+        public boolean retainAll(Collection aList)  { copy(); return super.retainAll(aList); }
+
+        /** List method - copies and removes if. */
+        public boolean removeIf(Predicate aFilter)  { copy(); return super.removeIf(aFilter); }
+
+        /** List method - copies and removes range. */
+        protected void removeRange(int aStart, int anEnd)  { copy(); super.removeRange(aStart, anEnd); }
+
+        /** List method - copies and replaces all. */
+        public void replaceAll(UnaryOperator anOp)  { copy(); super.replaceAll(anOp); }
+
+        /** List method - copies and sorts. */
+        public void sort(Comparator aComparator)  { copy(); super.sort(aComparator); }
+
+        /** List method - clears (without reading record). */
+        public void clear()
+        {
+            synchronized (this) { _copied = true; _record = null; }
+            super.clear();
+        }
+
+        /** Standard hashCode implementation (identity, like equals, so it doesn't change if record is dropped). */
+        public int hashCode()  { return System.identityHashCode(this); }
+    }
+}
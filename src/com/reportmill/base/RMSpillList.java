@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.base;
+import java.io.*;
+import java.lang.ref.*;
+import java.math.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This class is a list of flat records (Maps of String keys to simple values) stored in a temp file, for datasets
+ * too large to keep in memory (see RMExternalSort). Records are appended with add(), each with an optional long tag
+ * (like original row index), and are read back on get(), through a small read window, as new Maps.
+ *
+ * Only records where isSpillable() is true can be added: values must be null, String, Number (Integer, Long, Short,
+ * Byte, Double, Float, BigDecimal or BigInteger), Boolean, Date (or SQL Date/Timestamp) or byte[].
+ *
+ * The temp file is deleted on close() or, if list is never closed, once the list is garbage collected (or on exit).
+ */
+public class RMSpillList extends AbstractList<Map<String,Object>> implements RandomAccess, Closeable {
+
+    // The file and streams
+    Resources  _res;
+
+    // The record offsets and number of records
+    long  _offsets[] = new long[1024];
+    int  _size;
+
+    // The file length
+    long  _length;
+
+    // The record keys and their indexes
+    List<String>  _keys = new ArrayList<>();
+    Map<String,Integer>  _keyIndexes = new HashMap<>();
+
+    // The buffer for encoding records
+    ByteArrayOutputStream  _bytes = new ByteArrayOutputStream(256);
+    DataOutputStream  _bytesOut = new DataOutputStream(_bytes);
+
+    // The read window and its file offset
+    byte  _window[] = new byte[WINDOW_SIZE];
+    long  _windowStart = -1;
+    int  _windowLength;
+
+    // The resources of lists that haven't been closed, and queue of those that were garbage collected
+    private static Set<Resources>  _open = Collections.synchronizedSet(new HashSet<>());
+    private static ReferenceQueue<RMSpillList>  _collected = new ReferenceQueue<>();
+
+    // Constants for the read window size
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    // Constants for value types
+    private static final byte NULL = 0, STRING = 1, INTEGER = 2, LONG = 3, SHORT = 4, BYTE = 5, DOUBLE = 6, FLOAT = 7,
+            BIG_DECIMAL = 8, BIG_INTEGER = 9, BOOLEAN = 10, DATE = 11, SQL_DATE = 12, TIMESTAMP = 13, BYTES = 14;
+
+    /**
+     * Creates a new spill list with a temp file in given directory (or default temp directory if null).
+     */
+    public RMSpillList(File aDir) throws IOException
+    {
+        // Close any lists that were garbage collected without close
+        for (Reference ref = _collected.poll(); ref != null; ref = _collected.poll())
+            ((Resources) ref).close();
+
+        // Create temp file and output stream
+        File file = File.createTempFile("RMSpill", ".tmp", aDir);
+        file.deleteOnExit();
+        _res = new Resources(this, file);
+        _open.add(_res);
+    }
+
+    /**
+     * Returns the temp file.
+     */
+    public File getFile()  { return _res._file; }
+
+    /**
+     * Returns the number of bytes written.
+     */
+    public long getLength()  { return _length; }
+
+    /**
+     * Adds given record with tag of record index.
+     */
+    public boolean add(Map<String,Object> aRecord)
+    {
+        add(aRecord, _size);
+        return true;
+    }
+
+    /**
+     * Adds given record with given tag.
+     */
+    public synchronized void add(Map<String,Object> aRecord, long aTag)
+    {
+        // Encode record: tag, entry count, then key index, type and value for each entry
+        _bytes.reset();
+        try {
+            _bytesOut.writeLong(aTag);
+            _bytesOut.writeInt(aRecord.size());
+            for (Map.Entry<String,Object> entry : aRecord.entrySet()) {
+                _bytesOut.writeInt(getKeyIndex(entry.getKey()));
+                writeValue(_bytesOut, entry.getValue());
+            }
+
+            // Write record to file and add offset
+            if (_res._out == null)
+                _res._out = new BufferedOutputStream(new FileOutputStream(_res._file, true), WINDOW_SIZE);
+            _bytes.writeTo(_res._out);
+        }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+
+        // Add offset
+        if (_size == _offsets.length)
+            _offsets = Arrays.copyOf(_offsets, _size * 2);
+        _offsets[_size++] = _length;
+        _length += _bytes.size();
+    }
+
+    /**
+     * Returns the record at given index (as a new map).
+     */
+    public Map<String,Object> get(int anIndex)
+    {
+        return (Map<String,Object>) read(anIndex, false);
+    }
+
+    /**
+     * Returns the tag of record at given index.
+     */
+    public long getTag(int anIndex)
+    {
+        return (Long) read(anIndex, true);
+    }
+
+    /**
+     * Returns the number of records.
+     */
+    public int size()  { return _size; }
+
+    /**
+     * Reads the record (or just its tag) at given index.
+     */
+    private synchronized Object read(int anIndex, boolean isTagOnly)
+    {
+        // Check index
+        if (anIndex < 0 || anIndex >= _size)
+            throw new IndexOutOfBoundsException("Index: " + anIndex + ", Size: " + _size);
+
+        // Get record offset and length, and make sure record is in read window
+        long offset = _offsets[anIndex];
+        int length = (int) ((anIndex + 1 < _size ? _offsets[anIndex + 1] : _length) - offset);
+        try {
+            if (offset < _windowStart || offset + length > _windowStart + _windowLength)
+                readWindow(offset, length);
+        }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+
+        // Get tag (just return if tag only)
+        ByteBuffer buffer = ByteBuffer.wrap(_window, (int) (offset - _windowStart), length);
+        long tag = buffer.getLong();
+        if (isTagOnly)
+            return tag;
+
+        // Decode record
+        int count = buffer.getInt();
+        Map<String,Object> record = new LinkedHashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            String key = _keys.get(buffer.getInt());
+            record.put(key, readValue(buffer));
+        }
+        return record;
+    }
+
+    /**
+     * Reads the file into read window, starting at given offset (window grows if record is bigger).
+     */
+    private void readWindow(long anOffset, int aLength) throws IOException
+    {
+        // Flush output and open file for read
+        if (_res._out != null)
+            _res._out.flush();
+        if (_res._raf == null)
+            _res._raf = new RandomAccessFile(_res._file, "r");
+
+        // Read window
+        if (aLength > _window.length)
+            _window = new byte[aLength];
+        _windowStart = anOffset;
+        _windowLength = (int) Math.min(_window.length, _length - anOffset);
+        _res._raf.seek(anOffset);
+        _res._raf.readFully(_window, 0, _windowLength);
+    }
+
+    /**
+     * Returns the index for given key (adding key if new).
+     */
+    private int getKeyIndex(String aKey)
+    {
+        Integer index = _keyIndexes.get(aKey);
+        if (index == null) {
+            _keyIndexes.put(aKey, index = _keys.size());
+            _keys.add(aKey);
+        }
+        return index;
+    }
+
+    /**
+     * Closes the list and deletes temp file.
+     */
+    public void close()
+    {
+        _res.close();
+    }
+
+    /**
+     * Returns whether given record can be added to a spill list: a Map with String keys and simple values.
+     */
+    public static boolean isSpillable(Object aRecord)
+    {
+        // If not map, return false
+        if (!(aRecord instanceof Map))
+            return false;
+
+        // If any key isn't String or value isn't simple, return false
+        for (Map.Entry entry : ((Map<?,?>) aRecord).entrySet()) {
+            if (!(entry.getKey() instanceof String) || getType(entry.getValue()) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the value type for given value (or -1 if not supported).
+     */
+    private static byte getType(Object aValue)
+    {
+        if (aValue == null) return NULL;
+        Class cls = aValue.getClass();
+        if (cls == String.class) return STRING;
+        if (cls == Integer.class) return INTEGER;
+        if (cls == Long.class) return LONG;
+        if (cls == Double.class) return DOUBLE;
+        if (cls == BigDecimal.class) return BIG_DECIMAL;
+        if (cls == Boolean.class) return BOOLEAN;
+        if (cls == Date.class) return DATE;
+        if (cls == java.sql.Timestamp.class) return TIMESTAMP;
+        if (cls == java.sql.Date.class) return SQL_DATE;
+        if (cls == Float.class) return FLOAT;
+        if (cls == Short.class) return SHORT;
+        if (cls == Byte.class) return BYTE;
+        if (cls == BigInteger.class) return BIG_INTEGER;
+        if (cls == byte[].class) return BYTES;
+        return -1;
+    }
+
+    /**
+     * Writes given value.
+     */
+    private static void writeValue(DataOutputStream anOut, Object aValue) throws IOException
+    {
+        // Write type
+        byte type = getType(aValue);
+        if (type < 0)
+            throw new IllegalArgumentException("RMSpillList: Unsupported value class: " + aValue.getClass());
+        anOut.writeByte(type);
+
+        // Write value
+        switch (type) {
+            case NULL: break;
+            case STRING: writeBytes(anOut, ((String) aValue).getBytes(StandardCharsets.UTF_8)); break;
+            case INTEGER: anOut.writeInt((Integer) aValue); break;
+            case LONG: anOut.writeLong((Long) aValue); break;
+            case SHORT: anOut.writeShort((Short) aValue); break;
+            case BYTE: anOut.writeByte((Byte) aValue); break;
+            case DOUBLE: anOut.writeDouble((Double) aValue); break;
+            case FLOAT: anOut.writeFloat((Float) aValue); break;
+            case BIG_DECIMAL:
+            case BIG_INTEGER: writeBytes(anOut, aValue.toString().getBytes(StandardCharsets.UTF_8)); break;
+            case BOOLEAN: anOut.writeBoolean((Boolean) aValue); break;
+            case DATE:
+            case SQL_DATE: anOut.writeLong(((Date) aValue).getTime()); break;
+            case TIMESTAMP:
+                anOut.writeLong(((java.sql.Timestamp) aValue).getTime());
+                anOut.writeInt(((java.sql.Timestamp) aValue).getNanos());
+                break;
+            case BYTES: writeBytes(anOut, (byte[]) aValue); break;
+        }
+    }
+
+    /**
+     * Writes given bytes with length.
+     */
+    private static void writeBytes(DataOutputStream anOut, byte theBytes[]) throws IOException
+    {
+        anOut.writeInt(theBytes.length);
+        anOut.write(theBytes);
+    }
+
+    /**
+     * Reads a value.
+     */
+    private static Object readValue(ByteBuffer aBuffer)
+    {
+        byte type = aBuffer.get();
+        switch (type) {
+            case NULL: return null;
+            case STRING: return new String(readBytes(aBuffer), StandardCharsets.UTF_8);
+            case INTEGER: return aBuffer.getInt();
+            case LONG: return aBuffer.getLong();
+            case SHORT: return aBuffer.getShort();
+            case BYTE: return aBuffer.get();
+            case DOUBLE: return aBuffer.getDouble();
+            case FLOAT: return aBuffer.getFloat();
+            case BIG_DECIMAL: return new BigDecimal(new String(readBytes(aBuffer), StandardCharsets.UTF_8));
+            case BIG_INTEGER: return new BigInteger(new String(readBytes(aBuffer), StandardCharsets.UTF_8));
+            case BOOLEAN: return aBuffer.get() != 0;
+            case DATE: return new Date(aBuffer.getLong());
+            case SQL_DATE: return new java.sql.Date(aBuffer.getLong());
+            case TIMESTAMP: {
+                java.sql.Timestamp timestamp = new java.sql.Timestamp(aBuffer.getLong());
+                timestamp.setNanos(aBuffer.getInt());
+                return timestamp;
+            }
+            case BYTES: return readBytes(aBuffer);
+            default: throw new IllegalStateException("RMSpillList: Unknown value type: " + type);
+        }
+    }
+
+    /**
+     * Reads bytes with length.
+     */
+    private static byte[] readBytes(ByteBuffer aBuffer)
+    {
+        byte bytes[] = new byte[aBuffer.getInt()];
+        aBuffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns a string representation of list.
+     */
+    public String toString()
+    {
+        return "RMSpillList { File=" + getFile() + ", Size=" + size() + ", Length=" + getLength() + " }";
+    }
+
+    /**
+     * The temp file and its streams (phantom referenced to list, to close and delete file when list is collected).
+     */
+    private static class Resources extends PhantomReference<RMSpillList> {
+
+        // The file, output stream and read file
+        File  _file;
+        OutputStream  _out;
+        RandomAccessFile  _raf;
+
+        /** Creates new resources for given list and file. */
+        Resources(RMSpillList aList, File aFile)
+        {
+            super(aList, _collected);
+            _file = aFile;
+        }
+
+        /** Closes streams and deletes file. */
+        synchronized void close()
+        {
+            try {
+                if (_out != null) _out.close();
+                if (_raf != null) _raf.close();
+            }
+            catch (IOException e) { System.err.println("RMSpillList.close: " + e); }
+            _out = null; _raf = null;
+            _file.delete();
+            _open.remove(this);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.base;
+import java.math.BigDecimal;
+import java.time.*;
+import java.time.format.*;
+import java.time.temporal.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * This class parses the text of datasets into typed values (dates and numbers) for readers and schema inference.
+ * All methods are thread-safe: date formats are immutable java.time formatters, compiled once and cached per pattern.
+ *
+ * Dates have a fast path for ISO-8601 (yyyy-MM-dd, with optional [T ]HH:mm[:ss[.SSS]] and Z/offset), then try a
+ * table of common formats (the same formats as snap DateParser). Schema type inference (see isDate()) only accepts
+ * ISO-8601 and yyyy-M-d forms. Numbers have a fast path for plain decimal strings.
+ */
+public class RMValueParser {
+
+    // The cached date formatters for patterns
+    private static Map<String,DateTimeFormatter>  _formatters = new ConcurrentHashMap<>();
+
+    // The common date formats, as regex to match and pattern, in the order they are tried
+    private static final Pattern  DATE_REGEXES[];
+    private static final String  DATE_PATTERNS[];
+
+    // Load common date formats
+    static {
+        List<String> regexes = new ArrayList<>(), patterns = new ArrayList<>();
+
+        // Add compact formats
+        Collections.addAll(regexes, "\\d{8}", "\\d{12}", "\\d{8}\\s\\d{4}", "\\d{14}", "\\d{8}\\s\\d{6}");
+        Collections.addAll(patterns, "uuuuMMdd", "uuuuMMddHHmm", "uuuuMMdd HHmm", "uuuuMMddHHmmss", "uuuuMMdd HHmmss");
+
+        // Add delimited date formats, each with no time, hours/minutes and hours/minutes/seconds
+        String dateRegexes[] = { "\\d{1,2}-\\d{1,2}-\\d{4}", "\\d{4}-\\d{1,2}-\\d{1,2}", "\\d{1,2}/\\d{1,2}/\\d{4}",
+                "\\d{4}/\\d{1,2}/\\d{1,2}", "\\d{1,2}\\s[a-z]{3}\\s\\d{4}", "\\d{1,2}\\s[a-z]{4,}\\s\\d{4}" };
+        String datePatterns[] = { "d-M-uuuu", "uuuu-M-d", "M/d/uuuu", "uuuu/M/d", "d MMM uuuu", "d MMMM uuuu" };
+        String timeRegexes[] = { "", "\\s\\d{1,2}:\\d{2}", "\\s\\d{1,2}:\\d{2}:\\d{2}" };
+        String timePatterns[] = { "", " H:mm", " H:mm:ss" };
+        for (int i = 0; i < timeRegexes.length; i++) {
+            for (int j = 0; j < dateRegexes.length; j++) {
+                regexes.add(dateRegexes[j] + timeRegexes[i]);
+                patterns.add(datePatterns[j] + timePatterns[i]);
+            }
+        }
+
+        // Compile regexes
+        DATE_REGEXES = new Pattern[regexes.size()];
+        for (int i = 0; i < regexes.size(); i++)
+            DATE_REGEXES[i] = Pattern.compile(regexes.get(i), Pattern.CASE_INSENSITIVE);
+        DATE_PATTERNS = patterns.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the (cached) date formatter for given pattern (parsing is case-insensitive, in default locale).
+     */
+    public static DateTimeFormatter getFormatter(String aPattern)
+    {
+        DateTimeFormatter fmt = _formatters.get(aPattern);
+        if (fmt == null) {
+            fmt = new DateTimeFormatterBuilder().parseCaseInsensitive().appendPattern(aPattern).toFormatter();
+            _formatters.put(aPattern, fmt);
+        }
+        return fmt;
+    }
+
+    /**
+     * Returns a date for given string (ISO-8601 or common format), or null if string isn't a recognized date.
+     */
+    public static Date parseDate(String aStr)
+    {
+        // If null or empty, return null
+        String str = aStr != null ? aStr.trim() : null;
+        if (str == null || str.length() == 0)
+            return null;
+
+        // Try fast ISO-8601 path
+        Date date = parseDateISO(str);
+        if (date != null)
+            return date;
+
+        // Try common formats
+        for (int i = 0; i < DATE_REGEXES.length; i++)
+            if (DATE_REGEXES[i].matcher(str).matches())
+                return parseDate(str, DATE_PATTERNS[i]);
+
+        // Return null since date format not recognized
+        return null;
+    }
+
+    /**
+     * Returns a date for given string and pattern (or null if string doesn't match pattern).
+     */
+    public static Date parseDate(String aStr, String aPattern)
+    {
+        try {
+            TemporalAccessor temporal = getFormatter(aPattern).parse(aStr);
+            LocalDate date = temporal.query(TemporalQueries.localDate());
+            LocalTime time = temporal.query(TemporalQueries.localTime());
+            if (date == null)
+                return null;
+            LocalDateTime dateTime = time != null ? date.atTime(time) : date.atStartOfDay();
+            return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+        }
+        catch (DateTimeException e) { return null; }
+    }
+
+    /**
+     * Returns a date for given ISO-8601 string: yyyy-MM-dd, with optional [T ]HH:mm[:ss[.SSS]] and Z/offset.
+     */
+    private static Date parseDateISO(String aStr)
+    {
+        // Parse date (yyyy-MM-dd)
+        int len = aStr.length();
+        if (len < 10 || aStr.charAt(4) != '-' || aStr.charAt(7) != '-')
+            return null;
+        int year = getDigits(aStr, 0, 4), month = getDigits(aStr, 5, 2), day = getDigits(aStr, 8, 2);
+        if (year < 0 || month < 0 || day < 0)
+            return null;
+
+        // Parse time ([T ]HH:mm[:ss[.SSS]])
+        int hour = 0, min = 0, sec = 0, nanos = 0, index = 10;
+        if (index < len && (aStr.charAt(index) == 'T' || aStr.charAt(index) == ' ')) {
+            if (len < index + 6 || aStr.charAt(index + 3) != ':')
+                return null;
+            hour = getDigits(aStr, index + 1, 2);
+            min = getDigits(aStr, index + 4, 2);
+            index += 6;
+            if (index < len && aStr.charAt(index) == ':') {
+                sec = getDigits(aStr, index + 1, 2);
+                index += 3;
+                if (index < len && aStr.charAt(index) == '.') {
+                    int start = ++index;
+                    while (index < len && Character.isDigit(aStr.charAt(index))) index++;
+                    if (index == start || index - start > 9)
+                        return null;
+                    nanos = getDigits(aStr, start, index - start);
+                    for (int i = index - start; i < 9; i++) nanos *= 10;
+                }
+            }
+            if (hour < 0 || min < 0 || sec < 0)
+                return null;
+        }
+
+        // Parse zone (Z, +HH, +HHmm or +HH:mm)
+        ZoneOffset offset = null;
+        if (index < len) {
+            char c = aStr.charAt(index);
+            if (c == 'Z' && index + 1 == len)
+                offset = ZoneOffset.UTC;
+            else if (c == '+' || c == '-') {
+                int sign = c == '-' ? -1 : 1, offsetMins = 0, j = index + 3;
+                int offsetHours = getDigits(aStr, index + 1, 2);
+                if (j < len && aStr.charAt(j) == ':') j++;
+                if (j < len) {
+                    offsetMins = getDigits(aStr, j, 2);
+                    j += 2;
+                }
+                if (j != len || offsetHours < 0 || offsetMins < 0)
+                    return null;
+                try { offset = ZoneOffset.ofHoursMinutes(sign * offsetHours, sign * offsetMins); }
+                catch (DateTimeException e) { return null; }
+            }
+            else return null;
+        }
+
+        // Create date
+        try {
+            LocalDateTime dateTime = LocalDateTime.of(year, month, day, hour, min, sec, nanos);
+            Instant instant = offset != null ? dateTime.toInstant(offset) : dateTime.atZone(ZoneId.systemDefault()).toInstant();
+            return new Date(instant.toEpochMilli());
+        }
+        catch (DateTimeException e) { return null; }
+    }
+
+    /**
+     * Returns the value of given number of digits at given index in string (or -1 if out of bounds or not digits).
+     */
+    private static int getDigits(String aStr, int anIndex, int aCount)
+    {
+        if (anIndex + aCount > aStr.length())
+            return -1;
+        int value = 0;
+        for (int i = anIndex, iMax = anIndex + aCount; i < iMax; i++) {
+            char c = aStr.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Returns a string for given date and pattern.
+     */
+    public static String formatDate(Date aDate, String aPattern)
+    {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(aDate.toInstant(), ZoneId.systemDefault());
+        return getFormatter(aPattern).format(dateTime);
+    }
+
+    /**
+     * Returns a number of given type for given plain decimal string (like "-123" or "45.67"), or null if string isn't
+     * plain decimal (or is fractional or out of range for integral type), so caller can fall back to lenient
+     * conversion.
+     */
+    public static Number parseNumber(String aStr, Property.NumberType aNumberType)
+    {
+        // Get plain decimal kind (just return if not plain decimal)
+        int kind = getPlainDecimalKind(aStr);
+        if (kind == NOT_PLAIN)
+            return null;
+
+        // Handle integral string (Long.parseLong is exact for up to 18 digits, longer strings are left to lenient)
+        if (kind == PLAIN_INTEGRAL && aStr.length() <= 18) {
+            long value = Long.parseLong(aStr);
+            switch (aNumberType) {
+                case Byte: return value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE ? (Number) (int) value : null;
+                case Short: return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE ? (Number) (int) value : null;
+                case Integer: return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ? (Number) (int) value : null;
+                case Long: return value;
+                case Float: return (float) value;
+                case Double: return (double) value;
+                default: return new BigDecimal((double) value);
+            }
+        }
+
+        // Handle fractional string (leave integral types to lenient conversion)
+        double value = Double.parseDouble(aStr);
+        switch (aNumberType) {
+            case Byte:
+            case Short:
+            case Integer:
+            case Long: return null;
+            case Float: return (float) value;
+            case Double: return value;
+            default: return new BigDecimal(value);
+        }
+    }
+
+    /**
+     * Returns whether given string is a date for schema type inference: ISO-8601 or yyyy-M-d (with optional time), as
+     * inference has always accepted. Other common formats are only for explicit conversion (see parseDate()), since
+     * values like numeric IDs (20240101) match compact formats.
+     */
+    public static boolean isDate(String aStr)
+    {
+        // If null or empty, return false
+        String str = aStr != null ? aStr.trim() : null;
+        if (str == null || str.length() == 0)
+            return false;
+
+        // If ISO-8601, return true
+        if (parseDateISO(str) != null)
+            return true;
+
+        // Try year first dash formats
+        for (int i = 0; i < DATE_REGEXES.length; i++)
+            if (DATE_PATTERNS[i].startsWith("uuuu-") && DATE_REGEXES[i].matcher(str).matches())
+                return parseDate(str, DATE_PATTERNS[i]) != null;
+        return false;
+    }
+
+    /**
+     * Returns whether given string is a number (plain decimal or anything Float.parseFloat accepts).
+     */
+    public static boolean isNumber(String aStr)
+    {
+        if (getPlainDecimalKind(aStr) != NOT_PLAIN)
+            return true;
+        try { Float.parseFloat(aStr); return true; }
+        catch (Exception e) { return false; }
+    }
+
+    // Constants for plain decimal kinds
+    private static final int NOT_PLAIN = 0, PLAIN_INTEGRAL = 1, PLAIN_FRACTIONAL = 2;
+
+    /**
+     * Returns whether given string is plain decimal: optional sign, digits and optional fraction (digits required
+     * on both sides of decimal point).
+     */
+    private static int getPlainDecimalKind(String aStr)
+    {
+        // Skip sign
+        int len = aStr != null ? aStr.length() : 0, index = 0;
+        if (len > 0 && (aStr.charAt(0) == '-' || aStr.charAt(0) == '+'))
+            index++;
+
+        // Skip integer digits
+        int start = index;
+        while (index < len && Character.isDigit(aStr.charAt(index))) index++;
+        if (index == start)
+            return NOT_PLAIN;
+        if (index == len)
+            return PLAIN_INTEGRAL;
+
+        // Skip fraction digits
+        if (aStr.charAt(index++) != '.')
+            return NOT_PLAIN;
+        start = index;
+        while (index < len && Character.isDigit(aStr.charAt(index))) index++;
+        return index > start && index == len ? PLAIN_FRACTIONAL : NOT_PLAIN;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.base;
+import java.util.*;
+
+/**
+ * This class is a load-scoped intern pool used by dataset readers so that repeated values (category, region and
+ * status strings, small integers) share one instance. This cuts heap for large datasets and lets hashing and
+ * equality checks (like in RMGroup.groupByKey) short-circuit on identity.
+ *
+ * Values are pooled by value class, so a value is only ever replaced with an equal value of the same class. Only
+ * immutable values are pooled (not dates, which are mutable and equal across Date, java.sql.Date and Timestamp).
+ *
+ * Values are sampled per column (any object that identifies a property or column). Once a column has been sampled
+ * and turns out to be mostly distinct values (like ids or free text), the column bypasses the pool. The pool itself
+ * stops growing at max size, after which only already pooled values are shared.
+ *
+ * A pool is not thread-safe: readers create one per load.
+ */
+public class RMValuePool {
+
+    // The pooled values by value class
+    private Map<Class,Map<Object,Object>>  _values = new HashMap<>();
+
+    // The number of pooled values
+    private int  _size;
+
+    // The column stats
+    private Map<Object,Column>  _columns = new HashMap<>();
+
+    // The max number of pooled values
+    private int  _maxSize = DEFAULT_MAX_SIZE;
+
+    // The number of values that were replaced with pooled value
+    private long  _hitCount;
+
+    // Constants for default max size, column sample size and max distinct ratio for a pooled column
+    public static final int DEFAULT_MAX_SIZE = 1 << 16;
+    private static final int SAMPLE_SIZE = 1024;
+    private static final double MAX_DISTINCT_RATIO = .5;
+
+    // Constants for max pooled string length and integer magnitude
+    private static final int MAX_STRING_LENGTH = 64;
+    private static final int MAX_INTEGER = 1 << 16;
+
+    /**
+     * Returns the max number of pooled values.
+     */
+    public int getMaxSize()  { return _maxSize; }
+
+    /**
+     * Sets the max number of pooled values.
+     */
+    public void setMaxSize(int aValue)  { _maxSize = aValue; }
+
+    /**
+     * Returns the number of pooled values.
+     */
+    public int getSize()  { return _size; }
+
+    /**
+     * Returns the number of values that were replaced with a pooled value.
+     */
+    public long getHitCount()  { return _hitCount; }
+
+    /**
+     * Returns the shared instance for given value in given column (or value itself if not poolable or not pooled).
+     */
+    public <T> T intern(Object aColumn, T aValue)
+    {
+        // If value isn't poolable, just return it
+        if (!isPoolable(aValue))
+            return aValue;
+
+        // Get column stats (if column is high cardinality, just return value)
+        Column column = _columns.get(aColumn);
+        if (column == null)
+            _columns.put(aColumn, column = new Column());
+        if (column._bypass)
+            return aValue;
+        column._count++;
+
+        // Get values for value class (create if missing)
+        Map<Object,Object> values = _values.get(aValue.getClass());
+        if (values == null)
+            _values.put(aValue.getClass(), values = new HashMap<>());
+
+        // If value already pooled, return pooled value
+        Object pooled = values.get(aValue);
+        if (pooled != null) {
+            _hitCount++;
+            return (T) pooled;
+        }
+
+        // Add value (if pool not full) and update column distinct count
+        if (_size < _maxSize) {
+            values.put(aValue, aValue);
+            _size++;
+        }
+        column._distinct++;
+
+        // If column sampled and mostly distinct values, have column bypass pool
+        if (column._count >= SAMPLE_SIZE && column._distinct > column._count * MAX_DISTINCT_RATIO)
+            column._bypass = true;
+
+        // Return value
+        return aValue;
+    }
+
+    /**
+     * Returns whether given value can be pooled: short strings and small integers (immutable values only).
+     */
+    protected boolean isPoolable(Object aValue)
+    {
+        if (aValue instanceof String)
+            return ((String) aValue).length() <= MAX_STRING_LENGTH;
+        if (aValue instanceof Integer || aValue instanceof Long) {
+            long value = ((Number) aValue).longValue();
+            return value >= -MAX_INTEGER && value <= MAX_INTEGER;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a string representation of pool.
+     */
+    public String toString()
+    {
+        int bypassed = 0;
+        for (Column column : _columns.values())
+            if (column._bypass) bypassed++;
+        return "RMValuePool { Size=" + getSize() + ", Hits=" + getHitCount() + ", Columns=" + _columns.size() +
+                ", Bypassed=" + bypassed + " }";
+    }
+
+    /**
+     * Stats for values pooled for a column.
+     */
+    private static class Column {
+
+        // The number of values and distinct values seen
+        int _count, _distinct;
+
+        // Whether column bypasses pool (high cardinality)
+        boolean _bypass;
+    }
+}
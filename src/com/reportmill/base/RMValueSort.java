@@ -6,12 +6,19 @@ import java.util.*;
 
 /**
  * This is a sort subclass to support sorting objects by their relative position in an array of values.
+ *
+ * Positions are looked up in a hash index of value to rank (built on first compare), so sorting N objects by M values
+ * costs O(N log N) lookups instead of O(N log N * M). Numbers are indexed by numeric value, so a group value like
+ * Integer 2001 matches a listed value like BigDecimal 2001 (from RMGrouping.getValues()).
  */
 public class RMValueSort extends RMSort {
 
     // The list of values
     List _values;
 
+    // The rank (index of first occurrence) for each value (built on first compare)
+    volatile Map<Object,Integer> _ranks;
+
     /**
      * Creates a new value sort.
      */
@@ -21,6 +28,49 @@ public class RMValueSort extends RMSort {
         _values = aValuesList;
     }
 
+    /**
+     * Returns the list of values.
+     */
+    public List getValues()  { return _values; }
+
+    /**
+     * Returns the rank of given value in values list (or -1 if not found).
+     */
+    public int getRank(Object aValue)
+    {
+        Integer rank = getRanks().get(getIndexKey(aValue));
+        return rank != null ? rank : -1;
+    }
+
+    /**
+     * Returns the rank index (built on first call).
+     */
+    private Map<Object,Integer> getRanks()
+    {
+        // If already built, just return
+        Map<Object,Integer> ranks = _ranks;
+        if (ranks != null)
+            return ranks;
+
+        // Add rank for first occurrence of each value
+        ranks = new HashMap<>(_values.size() * 4 / 3 + 1);
+        for (int i = 0, iMax = _values.size(); i < iMax; i++)
+            ranks.putIfAbsent(getIndexKey(_values.get(i)), i);
+        return _ranks = ranks;
+    }
+
+    /**
+     * Returns the index key for given value: numbers as Long (if integral) or Double, anything else as is.
+     */
+    private static Object getIndexKey(Object aValue)
+    {
+        if (!(aValue instanceof Number))
+            return aValue;
+        double value = ((Number) aValue).doubleValue();
+        long longValue = (long) value;
+        return longValue == value ? (Object) longValue : (Object) value;
+    }
+
     /**
      * Compare objects with given RMSort.
      */
@@ -30,9 +80,9 @@ public class RMValueSort extends RMSort {
         Object val1 = RMKeyChain.getValue(obj1, getKey());
         Object val2 = RMKeyChain.getValue(obj2, getKey());
 
-        // Get indexes of values in values list
-        int index1 = _values.indexOf(val1);
-        int index2 = _values.indexOf(val2);
+        // Get ranks of values in values list
+        int index1 = getRank(val1);
+        int index2 = getRank(val2);
 
         // If val1 and val2 have same index, return same
         if (index1 == index2)
@@ -23,6 +23,24 @@ public class RMXMLReader {
     // A cache of lists for specific element names
     Map<String, List<Map>> _entityLists = new LinkedHashMap();
 
+    // The names of referenced properties to read (null for all)
+    Set<String> _projection;
+
+    // The names of entities reachable through referenced relations (root lists of these are always read)
+    Set<String> _projectionEntities;
+
+    // Whether nested to-many relations are read lazily (on first access)
+    boolean _lazy;
+
+    // The pool for repeated values (shared by lazy reads, so kept for life of reader)
+    RMValuePool _pool = new RMValuePool();
+
+    // Whether attribute types came from a sample and must be confirmed by values as they are read
+    boolean _confirmTypes;
+
+    // Whether a confirmed type was widened by a value that contradicted it (so read must be redone)
+    boolean _widened;
+
     /**
      * Creates an uninitialized reader.
      */
@@ -30,6 +48,41 @@ public class RMXMLReader {
     {
     }
 
+    /**
+     * Returns whether nested to-many relations are read lazily (on first access).
+     */
+    public boolean isLazy()
+    {
+        return _lazy;
+    }
+
+    /**
+     * Sets whether nested to-many relations are read lazily (on first access). In lazy mode, nested lists are backed
+     * by their XML elements and only converted to maps the first time they are accessed (lists of the root entity are
+     * always read, since they provide the attributes of shared entity maps).
+     */
+    public void setLazy(boolean aValue)
+    {
+        _lazy = aValue;
+    }
+
+    /**
+     * Returns the names of referenced properties to read (null for all).
+     */
+    public Set<String> getProjection()
+    {
+        return _projection;
+    }
+
+    /**
+     * Sets the key paths to read (like RMDocument.getReferencedKeys()), so unreferenced attributes and elements are
+     * skipped. Projection is by property name, since template keys are relative to the enclosing dataset.
+     */
+    public void setProjection(Collection<String> theKeyPaths)
+    {
+        _projection = theKeyPaths != null ? RMKeyChain.getKeyNames(theKeyPaths) : null;
+    }
+
     /**
      * Returns a map loaded from the given XML source.
      */
@@ -66,21 +119,36 @@ public class RMXMLReader {
         else if (schema != null)
             _schema = new Schema(_name).fromXML(null, schema);
 
-            // Otherwise, reverse engineer it from element
-        else _schema = new RMSchemaMaker().getSchema(rootXML);
+            // Otherwise, reverse engineer it from element (types from sample, unless lazy since lazy values can't be
+            // read again if a type is widened)
+        else {
+            RMSchemaMaker schemaMaker = new RMSchemaMaker();
+            if (_lazy)
+                schemaMaker.setSampleSize(0);
+            _schema = schemaMaker.getSchema(rootXML);
+            _confirmTypes = schemaMaker.isSampled();
+        }
 
         // Make sure schema has root entity
         _schema.getRootEntity();
 
+        // If projection set, get entities reachable through referenced relations
+        if (_projection != null)
+            _projectionEntities = getReachableEntityNames(_schema.getRootEntity(), new HashSet<>());
+
         // Iterate over resources, remove from root element and add to resources list
         for (int i = rootXML.indexOf("RMResource"); i >= 0; i = rootXML.indexOf("RMResource", i))
             _resources.add(rootXML.removeElement(i));
 
-        // Create root map
-        Map rootMap = new LinkedHashMap();
-
-        // Read rootMap from root element (recursively reads everything)
-        read(rootXML, rootMap, _name);
+        // Read rootMap from root element (recursively reads everything) - read again if sampled type was widened
+        Map rootMap;
+        do {
+            _widened = false;
+            _entityLists.clear();
+            rootMap = new LinkedHashMap();
+            read(rootXML, rootMap, _name);
+        } while (_widened);
+        _confirmTypes = false;
 
         // Return root map
         return rootMap;
@@ -102,6 +170,14 @@ public class RMXMLReader {
         for (int i = 0, iMax = entity.getPropertyCount(); i < iMax; i++) {
             Property prop = entity.getProperty(i);
 
+            // If projection is set and property isn't referenced (or primary or root list of reachable entity), skip
+            if (_projection != null && !_projection.contains(prop.getName()) && !prop.isPrimary()) {
+                boolean isRootList = prop.isRelation() && entity == _schema.getRootEntity() &&
+                        _projectionEntities.contains(prop.getRelationEntityName());
+                if (!isRootList)
+                    continue;
+            }
+
             // If property is plain attribute, get string for property, convertToType and put in Map
             if (prop.isAttribute()) {
 
@@ -115,8 +191,15 @@ public class RMXMLReader {
                     valueStr = valueEle == null ? null : valueEle.getValue();
                 }
 
-                // Get property value for string and add to map
+                // Get property value for string
                 Object value = prop.convertValue(valueStr);
+
+                // If confirming sampled types, widen type if value contradicts it (and convert again)
+                if (_confirmTypes && (value == null || prop.getType() == Property.Type.Number))
+                    value = confirmType(prop, valueStr, value);
+
+                // Get pooled value and add to map
+                value = _pool.intern(prop, value);
                 if (value != null)
                     aMap.put(propName, value);
             }
@@ -126,6 +209,40 @@ public class RMXMLReader {
         }
     }
 
+    /**
+     * Widens type of given attribute if given value string contradicts it (as it wasn't in schema sample) and returns
+     * value converted for new type. Since values already read have the old type, the read is flagged to be redone.
+     */
+    private Object confirmType(Property aProp, String aValueStr, Object aValue)
+    {
+        // Widen type from value string (just return if unchanged)
+        Property.Type type = aProp.getType();
+        aProp.setTypeFromSample(aValueStr);
+        if (aProp.getType() == type)
+            return aValue;
+
+        // Flag read to be redone and return value for new type
+        _widened = true;
+        return aProp.convertValue(aValueStr);
+    }
+
+    /**
+     * Returns the names of entities reachable from given entity through referenced relations. Root lists for these
+     * entities are read even if not referenced, since they can provide the attributes of shared (unique) maps.
+     */
+    private Set<String> getReachableEntityNames(Entity anEntity, Set<String> theNames)
+    {
+        for (int i = 0, iMax = anEntity.getPropertyCount(); i < iMax; i++) {
+            Property prop = anEntity.getProperty(i);
+            if (prop.isRelation() && _projection.contains(prop.getName())) {
+                Entity relEntity = prop.getRelationEntity();
+                if (relEntity != null && theNames.add(relEntity.getName()))
+                    getReachableEntityNames(relEntity, theNames);
+            }
+        }
+        return theNames;
+    }
+
     /**
      * Loads given map with collections & core types from given XML element, according to schema.
      */
@@ -137,30 +254,18 @@ public class RMXMLReader {
         if (relationEntityName == null || relationEntityName.startsWith("[")) // Just return if null or Array class
             return;
 
-        // Handle to-many relation: get children and iterate over them to recursively read and add to to-many list
+        // Handle to-many relation: if lazy and not root entity, add lazy list (if there are child elements)
         if (aRelation.isToMany()) {
+            if (_lazy && aRelation.getEntity() != _schema.getRootEntity()) {
+                if (anElement.indexOf(propertyName) >= 0)
+                    aMap.put(propertyName, new LazyList(anElement, aRelation));
+            }
 
-            // Declare variable for list
-            List list = null;
-
-            // Iterate over child elements with name key
-            for (int j = anElement.indexOf(propertyName); j >= 0; j = anElement.indexOf(propertyName, j + 1)) {
-
-                // Create list if needed
-                if (list == null)
-                    aMap.put(propertyName, list = new ArrayList());
-
-                // Get child xml element
-                XMLElement child = anElement.get(j);
-
-                // Get unique map for child xml element
-                Map map = getUniqueMap(child, relationEntityName);
-
-                // Add to list
-                list.add(map);
-
-                // Recurse into read
-                read(child, map, relationEntityName);
+            // Otherwise read list
+            else {
+                List list = readToMany(anElement, aRelation);
+                if (list != null)
+                    aMap.put(propertyName, list);
             }
         }
 
@@ -190,6 +295,42 @@ public class RMXMLReader {
     }
 
 
+    /**
+     * Returns a list of maps for given XML element to-many relation (or null if there are no child elements).
+     */
+    private List<Map> readToMany(XMLElement anElement, Property aRelation)
+    {
+        // Get property name and property relation entity name
+        String propertyName = aRelation.getName();
+        String relationEntityName = aRelation.getRelationEntityName();
+
+        // Declare variable for list
+        List<Map> list = null;
+
+        // Iterate over child elements with name key
+        for (int j = anElement.indexOf(propertyName); j >= 0; j = anElement.indexOf(propertyName, j + 1)) {
+
+            // Create list if needed
+            if (list == null)
+                list = new ArrayList<>();
+
+            // Get child xml element
+            XMLElement child = anElement.get(j);
+
+            // Get unique map for child xml element
+            Map map = getUniqueMap(child, relationEntityName);
+
+            // Add to list
+            list.add(map);
+
+            // Recurse into read
+            read(child, map, relationEntityName);
+        }
+
+        // Return list
+        return list;
+    }
+
     /**
      * Returns a unique map for the given xml element and entity name using primary keys
      */
@@ -290,4 +431,57 @@ public class RMXMLReader {
         return list;
     }
 
-}
\ No newline at end of file
+    /**
+     * A list for a nested to-many relation that reads its maps from XML element the first time it is accessed.
+     */
+    private class LazyList extends AbstractList<Map> implements RandomAccess {
+
+        // The parent element and relation (cleared once read)
+        XMLElement _element;
+        Property _relation;
+
+        // The list of maps, once read
+        volatile List<Map> _list;
+
+        /**
+         * Creates a LazyList for given parent element and to-many relation.
+         */
+        LazyList(XMLElement anElement, Property aRelation)
+        {
+            _element = anElement;
+            _relation = aRelation;
+        }
+
+        /**
+         * Returns the list of maps (reads them on first call - synchronized on reader, since reads share entity lists).
+         */
+        List<Map> getList()
+        {
+            // If already read, just return
+            List<Map> list = _list;
+            if (list != null)
+                return list;
+
+            // Read list (double check under reader lock) and release element
+            synchronized (RMXMLReader.this) {
+                if (_list == null) {
+                    list = readToMany(_element, _relation);
+                    _list = list != null ? list : Collections.emptyList();
+                    _element = null;
+                    _relation = null;
+                }
+                return _list;
+            }
+        }
+
+        /**
+         * Override to read list.
+         */
+        public Map get(int anIndex)  { return getList().get(anIndex); }
+
+        /**
+         * Override to read list.
+         */
+        public int size()  { return getList().size(); }
+    }
+}
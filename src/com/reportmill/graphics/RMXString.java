@@ -643,6 +643,18 @@ public class RMXString implements Cloneable, CharSequence, RMTypes, XMLArchiver.
         return outString;
     }
 
+    /**
+     * Adds the key paths referenced by @key@ constructs in this string to given collection.
+     */
+    public void addKeyPaths(Collection<String> aList)
+    {
+        for (Range range = nextKeyRangeAfterIndex(0, new Range()); range.length() > 0;
+             nextKeyRangeAfterIndex(range.end, range)) {
+            if (range.end - 1 > range.start + 1)
+                RMKeyChain.addKeyPaths(subSequence(range.start + 1, range.end - 1).toString(), aList);
+        }
+    }
+
     /**
      * Returns the range of the next occurrence of @delimited@ text.
      */
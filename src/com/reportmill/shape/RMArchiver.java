@@ -42,7 +42,13 @@ public class RMArchiver extends XMLArchiver {
         // Create archiver, read, set source and return
         setRootObject(aBaseDoc);
 
-        RMDocument doc = (RMDocument) readFromXMLSource(url != null ? url : bytes);
+        // If binary template, read archived xml from binary, otherwise read XML source
+        RMDocument doc;
+        if (RMTemplateBinary.canRead(bytes)) {
+            setSourceURL(url);
+            doc = (RMDocument) readFromXML(RMTemplateBinary.readXML(bytes, this));
+        }
+        else doc = (RMDocument) readFromXMLSource(url != null ? url : bytes);
 
         // Set Source URL and return
         doc.setSourceURL(getSourceURL());
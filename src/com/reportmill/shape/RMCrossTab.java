@@ -2,6 +2,7 @@
  * Copyright (c) 2010, ReportMill Software. All rights reserved.
  */
 package com.reportmill.shape;
+import com.reportmill.base.RMKeyChain;
 import com.reportmill.graphics.*;
 import java.util.*;
 import snap.util.*;
@@ -572,6 +573,15 @@ public class RMCrossTab extends RMParentShape {
      */
     int _ci, _ri;
 
+    /**
+     * Override to add filter key.
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        super.addReferencedKeys(aList);
+        RMKeyChain.addKeyPaths(getFilterKey(), aList);
+    }
+
     /**
      * Sets a reportmill for this crosstab (which really gets the dataset and calls setObjects).
      */
@@ -8,6 +8,7 @@ import snap.geom.Insets;
 import snap.gfx.*;
 import snap.text.TextLineStyle;
 import snap.util.*;
+import java.util.Collection;
 
 /**
  * A text shape subclass used to form the basis of a table.
@@ -303,6 +304,16 @@ public class RMCrossTabCell extends RMTextShape {
         return _defaultMargin;
     }
 
+    /**
+     * Override to add grouping keys.
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        super.addReferencedKeys(aList);
+        if (getGrouping() != null)
+            getGrouping().addKeyPaths(aList);
+    }
+
     /**
      * Clears the text and grouping from this cell.
      */
@@ -3,7 +3,6 @@
  */
 package com.reportmill.shape;
 import com.reportmill.base.*;
-import snap.util.ListUtils;
 import java.util.List;
 
 /**
@@ -24,7 +23,7 @@ class RMCrossTabRPG {
             // If no dataset key, use last data bearing object if RMGroup
             if (aCTab.getDatasetKey() == null || aCTab.getDatasetKey().length() == 0) {
                 RMGroup tableRowGroup = (RMGroup) anRptOwner.peekDataStack();
-                dataset = tableRowGroup.cloneDeep(); // Make dataset a copy of table row group
+                dataset = tableRowGroup.view(); // Make dataset a view of table row group (copied as changed)
             }
 
             // If dataset key, evaluate it
@@ -38,16 +37,11 @@ class RMCrossTabRPG {
         //Object parentTableRowGroup = parentTableRow==null? null : anRptOwner.popDataStack();
 
         // Apply filter key to dataset
-        if (dataset != null) {
-            String filterKey = aCTab.getFilterKey();
-            if (filterKey != null && filterKey.length() > 0) {
-                RMKeyChain keyChain = RMKeyChain.getKeyChain(filterKey);
-                dataset = ListUtils.getFiltered(dataset, item -> RMKeyChain.getBoolValue(item, keyChain));
-            }
-        }
+        if (dataset != null)
+            dataset = RMKeyChainFilter.getFiltered(dataset, aCTab.getFilterKey());
 
         // Get dataset as group
-        RMGroup datasetGroup = dataset instanceof RMGroup ? (RMGroup) dataset : new RMGroup(dataset);
+        RMGroup datasetGroup = dataset instanceof RMGroup ? (RMGroup) dataset : new RMGroupView(dataset);
 
         // Get standard clone (minus bindings)
         RMCrossTab clone = aCTab.cloneDeep();
@@ -104,9 +98,9 @@ class RMCrossTabRPG {
         // Get cell group
         RMGroup group = aCell.getGroup();
 
-        // If group is dataset group, get new group
+        // If group is dataset group, get new group (a view, so shared groups aren't changed)
         if (group == aDatasetGroup)
-            group = new RMGroup(aDataset);
+            group = new RMGroupView(aDataset);
 
         // Group existing group by cell grouping
         group.groupBy(grouping);
@@ -87,6 +87,9 @@ public class RMDocument extends RMParentShape {
     // The ReportOwner that created this document (if from RPG)
     ReportOwner _reportOwner;
 
+    // Whether document is a shared template from RMTemplateCache (shouldn't be modified)
+    boolean _shared;
+
     // Locale
     public static Locale _locale = Locale.ENGLISH;  // Used by date/number formats    
 
@@ -139,6 +142,21 @@ public class RMDocument extends RMParentShape {
         return new RMArchiver().getDoc(aSource);
     }
 
+    /**
+     * Returns a shared template for given source from the process-wide template cache (loaded once per source URL and
+     * modified time), which many threads can generate reports from at once. The template shouldn't be modified (see
+     * RMTemplateCache).
+     */
+    public static RMDocument getDocShared(Object aSource)
+    {
+        return RMTemplateCache.getShared().getDoc(aSource);
+    }
+
+    /**
+     * Returns whether document is a shared template from RMTemplateCache (shouldn't be modified).
+     */
+    public boolean isShared()  { return _shared; }
+
     /**
      * Returns whether Source URL is set.
      */
@@ -860,6 +878,7 @@ public class RMDocument extends RMParentShape {
         if (path.endsWith(".rtf")) SnapUtils.writeBytes(getBytesRTF(), aPath);
         if (path.endsWith(".rpt") || path.endsWith(".xml"))
             SnapUtils.writeBytes(getXML().getBytes(), aPath);
+        if (path.endsWith(".rptb")) SnapUtils.writeBytes(RMTemplateBinary.getBytes(this), aPath);
     }
 
     /**
@@ -887,7 +906,8 @@ public class RMDocument extends RMParentShape {
     }
 
     /**
-     * Returns a subreport document for given name (override to improve).
+     * Returns a subreport document for given name (override to improve). If this document is a shared template, the
+     * subreport is a shared template from RMTemplateCache too.
      */
     public RMDocument getSubreport(String aName)
     {
@@ -901,18 +921,29 @@ public class RMDocument extends RMParentShape {
         String dir = FilePathUtils.getParentPath(getFilename());
         String subreportFilename = FilePathUtils.getChild(dir, aName);
         try {
-            return RMDocument.getDoc(subreportFilename);
+            return isShared() ? getDocShared(subreportFilename) : RMDocument.getDoc(subreportFilename);
         } catch (Exception e) {
         }
 
         // Otherwise, just try full name in case it's a path
         try {
-            return RMDocument.getDoc(aName);
+            return isShared() ? getDocShared(aName) : RMDocument.getDoc(aName);
         } catch (Exception e) {
         }
         return null;
     }
 
+    /**
+     * Returns the key paths referenced by this template (bindings, text keys, dataset, grouping, sort and filter keys,
+     * including subreports). Keys are returned as written, so they are relative to the enclosing dataset key.
+     */
+    public Set<String> getReferencedKeys()
+    {
+        Set<String> keys = new TreeSet<>();
+        addReferencedKeys(keys);
+        return keys;
+    }
+
     /**
      * Overrides paint shape, because document should never really paint itself.
      */
@@ -977,7 +1008,11 @@ public class RMDocument extends RMParentShape {
         RMPage tableOfContentsPage = null;
         int tocPageIndex = 0;
 
+        // Generate pages in parallel (if allowed and pages don't make key assignments), otherwise they're done in loop
         RMDocument doc = (RMDocument) aParent;
+        RMShape pageRPGs[] = anRptOwner.isParallel(getPageCount()) ? rpgPagesParallel(anRptOwner, doc) : null;
+
+        // Iterate over pages
         for (int i = 0, iMax = getChildCount(); i < iMax; i++) {
             RMPage page = getPage(i);
 
@@ -989,7 +1024,7 @@ public class RMDocument extends RMParentShape {
             }
 
             // Generate report and add results
-            RMParentShape crpg = (RMParentShape) anRptOwner.rpg(page, doc);
+            RMParentShape crpg = (RMParentShape) (pageRPGs != null ? pageRPGs[i] : anRptOwner.rpg(page, doc));
             if (crpg instanceof ReportOwner.ShapeList) {
                 for (RMShape pg : crpg.getChildArray()) doc.addPage((RMPage) pg);
             } else doc.addPage((RMPage) crpg);
@@ -1002,6 +1037,18 @@ public class RMDocument extends RMParentShape {
         return aParent;
     }
 
+    /**
+     * Generates pages in parallel (except table of contents pages, which are done last) and returns them in page order
+     * (or null if pages make key assignments, see ReportOwner.rpgParallel()).
+     */
+    private RMShape[] rpgPagesParallel(ReportOwner anRptOwner, RMDocument aDoc)
+    {
+        return anRptOwner.rpgParallel(getPageCount(), (owner, index) -> {
+            RMPage page = getPage(index);
+            return RMTableOfContents.checkForTableOfContents(page) ? null : owner.rpg(page, aDoc);
+        });
+    }
+
     /**
      * Performs page substitutions on any text fields that were identified as containing @Page@ keys.
      */
@@ -1118,6 +1165,7 @@ public class RMDocument extends RMParentShape {
         RMDocument clone = (RMDocument) super.clone();
         if (_metadata != null) clone._metadata = new HashMap(_metadata);
         clone._reportOwner = null;
+        clone._shared = false;
         return clone;
     }
 
@@ -4,6 +4,7 @@
 package com.reportmill.shape;
 import com.reportmill.base.RMFormat;
 import com.reportmill.base.RMGrouping;
+import com.reportmill.base.RMKeyChain;
 import com.reportmill.graphics.*;
 import java.util.*;
 import java.util.List;
@@ -73,6 +74,9 @@ public class RMGraph extends RMParentShape {
     // A key that can be evaluated on graph data item to return color string
     private String _colorKey;
 
+    // The max number of items per series (more are downsampled during RPG), or 0 for no limit
+    private int _maxPoints;
+
     // This list of colors this graph uses
     private List<RMColor> _colors;
 
@@ -474,6 +478,24 @@ public class RMGraph extends RMParentShape {
             getLegend().resetItems();
     }
 
+    /**
+     * Returns the max number of items per series (more are downsampled during RPG), or 0 for no limit.
+     */
+    public int getMaxPoints()  { return _maxPoints; }
+
+    /**
+     * Sets the max number of items per series (more are downsampled during RPG), or 0 for no limit. Line and area graphs
+     * keep the points that best preserve the shape of each series, splitting max points between series so all series
+     * together keep no more (a value around the graph width keeps lines looking the same). Bar and pie graphs keep the
+     * largest items and combine the rest into "Others". Scatter graphs aren't downsampled.
+     */
+    public void setMaxPoints(int aValue)
+    {
+        if (aValue == _maxPoints) return;
+        firePropChange("MaxPoints", _maxPoints, _maxPoints = aValue);
+        relayout();
+    }
+
     /**
      * Returns the number of colors set for this graph.
      */
@@ -492,8 +514,7 @@ public class RMGraph extends RMParentShape {
      */
     public List<RMColor> getColors()
     {
-        if (_colors != null) return _colors;
-        return _colors = getDefaultColors();
+        return _colors != null ? _colors : getDefaultColors();
     }
 
     /**
@@ -612,6 +633,19 @@ public class RMGraph extends RMParentShape {
         return objects;
     }
 
+    /**
+     * Override to add filter key, series keys, color key and grouping keys.
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        super.addReferencedKeys(aList);
+        RMKeyChain.addKeyPaths(getFilterKey(), aList);
+        for (int i = 0, iMax = getKeyCount(); i < iMax; i++)
+            RMKeyChain.addKeyPaths(getKey(i), aList);
+        RMKeyChain.addKeyPaths(getColorKey(), aList);
+        getGrouping().addKeyPaths(aList);
+    }
+
     /**
      * Set ReportMill (which tries to get a dataset from reportmill and calls setObjects).
      */
@@ -891,6 +925,9 @@ public class RMGraph extends RMParentShape {
         // Archive ColorKey
         if (getColorKey() != null) e.add("ColorKey", getColorKey());
 
+        // Archive MaxPoints
+        if (getMaxPoints() > 0) e.add("MaxPoints", getMaxPoints());
+
         // Archive colors
         if (!getColors().equals(getDefaultColors())) {
             StringBuffer cbuf = new StringBuffer();
@@ -972,6 +1009,9 @@ public class RMGraph extends RMParentShape {
         // Unarchive ColorKey
         if (anElement.hasAttribute("ColorKey")) setColorKey(anElement.getAttributeValue("ColorKey"));
 
+        // Unarchive MaxPoints
+        if (anElement.hasAttribute("MaxPoints")) setMaxPoints(anElement.getAttributeIntValue("MaxPoints"));
+
         // Unarchive colors: Get colors string, string array and create colors list and set
         if (anElement.hasAttribute("colors")) {
             String colorsString = anElement.getAttributeValue("colors");
@@ -102,6 +102,16 @@ public class RMGraphLegend extends RMParentShape {
         configureRPG(graphRPG, false);
     }
 
+    /**
+     * Override to add legend text keys.
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        super.addReferencedKeys(aList);
+        if (getLegendText() != null && getLegendText().indexOf('@') >= 0)
+            new RMXString(getLegendText()).addKeyPaths(aList);
+    }
+
     /**
      * Override to .
      */
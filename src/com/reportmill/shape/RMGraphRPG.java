@@ -5,7 +5,6 @@ package com.reportmill.shape;
 import com.reportmill.base.*;
 import com.reportmill.graphics.RMColor;
 import com.reportmill.shape.RMGraph.*;
-import snap.util.ListUtils;
 
 import java.util.*;
 
@@ -56,8 +55,8 @@ abstract class RMGraphRPG {
                 // Get table row group from ReportMill's data bearing objects list
                 RMGroup tableRowGroup = (RMGroup) anRptOwner.peekDataStack();
 
-                // Make dataset a copy of last table row group
-                dataset = tableRowGroup.cloneDeep();
+                // Make dataset a view of last table row group (copied as changed)
+                dataset = tableRowGroup.view();
 
                 // If tableRowGroup is leaf, embed it inside a list (can't remember why I thought this was needed)
                 if (tableRowGroup.isLeaf())
@@ -73,22 +72,18 @@ abstract class RMGraphRPG {
 
         // Get filtered list from dataset and graph filter key
         List<?> filteredList = dataset;
-        if (dataset != null) {
-            String filterKey = _graph.getFilterKey();
-            if (filterKey != null && filterKey.length() > 0) {
-                RMKeyChain keyChain = RMKeyChain.getKeyChain(filterKey);
-                filteredList = ListUtils.getFiltered(filteredList, item -> RMKeyChain.getBoolValue(item, keyChain));
-            }
-        }
+        if (dataset != null)
+            filteredList = RMKeyChainFilter.getFiltered(filteredList, _graph.getFilterKey());
 
         // Get filtered list as group
-        _objects = filteredList instanceof RMGroup ? (RMGroup) filteredList : new RMGroup(filteredList);
+        _objects = filteredList instanceof RMGroup ? (RMGroup) filteredList : new RMGroupView(filteredList);
 
         // Do grouping (sorting really)
         RMGrouping grouping = _graph.getGrouping();
         _objects.groupByLeafKey(grouping.getKey()); // Group by leaf key (just turns leaf objects into one object groups)
         _objects.topNSortBy(grouping.getTopNSort()); // Do top n sort for grouping
         _objects.sortBy(grouping); // Do sorts for grouping
+        RMGraphSeries.downsample(_graph, _objects); // Downsample if more objects than graph max points
 
         // Load Series, Sections and Intervals
         _series = RMGraphSeries.getSeries(this);
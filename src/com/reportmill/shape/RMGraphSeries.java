@@ -111,6 +111,110 @@ public class RMGraphSeries {
         return series;
     }
 
+    /**
+     * Downsamples given graph objects (the items of every series) if there are more than graph max points: line and
+     * area graphs keep the largest-triangle-three-buckets points of each series, with max points split between series
+     * (all series keep the same objects, so items stay in line), bar and pie graphs keep the largest items (by first
+     * series) in their order, with the rest combined into an "Others" item. Scatter graphs aren't downsampled, since
+     * their points aren't a line whose shape can be kept with fewer points.
+     */
+    public static void downsample(RMGraph aGraph, RMGroup theObjects)
+    {
+        // Just return if no max points or not more objects than max points (or no keys)
+        int maxPoints = aGraph.getMaxPoints();
+        if (maxPoints <= 0 || theObjects.size() <= maxPoints || aGraph.getKeyCount() == 0)
+            return;
+
+        // If scatter, just return
+        RMGraph.Type type = aGraph.getType();
+        if (type == RMGraph.Type.Scatter)
+            return;
+
+        // Handle line and area
+        if (type == RMGraph.Type.Line || type == RMGraph.Type.Area) {
+
+            // Get points per series: series share first and last points and split the rest (at least one each)
+            int keyCount = aGraph.getKeyCount();
+            int seriesPoints = Math.max((maxPoints - 2) / keyCount, 1) + 2;
+
+            // Get largest-triangle-three-buckets points of each series
+            int count = theObjects.size();
+            boolean keep[] = new boolean[count];
+            for (int i = 0; i < keyCount; i++) {
+                double values[] = new double[count];
+                for (int j = 0; j < count; j++)
+                    values[j] = new Item(aGraph.getKey(i), (RMGroup) theObjects.get(j)).getValue().doubleValue();
+                addLTTB(values, seriesPoints, keep);
+            }
+
+            // Get kept objects and reset
+            List kept = new ArrayList();
+            for (int i = 0; i < count; i++)
+                if (keep[i]) kept.add(theObjects.getGroup(i));
+            theObjects.clear();
+            theObjects.addAll(kept);
+        }
+
+        // Handle bar and pie: Do top N sort (with others) by first key, then restore original order (others last)
+        else {
+            Map<Object,Integer> order = new IdentityHashMap<>();
+            for (int i = 0, iMax = theObjects.size(); i < iMax; i++)
+                order.put(theObjects.getGroup(i), i);
+            int count = Math.max(maxPoints - 1, 1);
+            theObjects.topNSortBy(new RMTopNSort(aGraph.getKey(0), RMSort.ORDER_DESCEND, count, true));
+            theObjects.sort(Comparator.comparingInt(obj -> order.getOrDefault(obj, Integer.MAX_VALUE)));
+        }
+    }
+
+    /**
+     * Marks the given number of points of given values (x is index) picked by largest-triangle-three-buckets: first and
+     * last points, and for each bucket between, the point that makes the largest triangle with the previous picked
+     * point and the average of the next bucket.
+     */
+    private static void addLTTB(double theValues[], int aCount, boolean theKeep[])
+    {
+        // Keep first point and get bucket size (points other than first and last split into count-2 buckets)
+        int count = theValues.length;
+        double bucketSize = (count - 2) / (double) (aCount - 2);
+        int last = 0;
+        theKeep[0] = true;
+
+        // Iterate over buckets
+        for (int i = 0; i < aCount - 2; i++) {
+
+            // Get average point of next bucket (last point for last bucket)
+            int nextStart = (int) ((i + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) ((i + 2) * bucketSize) + 1, count);
+            double avgX = 0, avgY = 0;
+            for (int j = nextStart; j < nextEnd; j++) {
+                avgX += j;
+                avgY += theValues[j];
+            }
+            avgX /= nextEnd - nextStart;
+            avgY /= nextEnd - nextStart;
+
+            // Get point in this bucket with largest triangle area with last point and next bucket average
+            int start = (int) (i * bucketSize) + 1;
+            int end = (int) ((i + 1) * bucketSize) + 1;
+            double lastY = theValues[last], maxArea = -1;
+            int maxIndex = start;
+            for (int j = start; j < end; j++) {
+                double area = Math.abs((last - avgX) * (theValues[j] - lastY) - (last - j) * (avgY - lastY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxIndex = j;
+                }
+            }
+
+            // Keep point
+            theKeep[maxIndex] = true;
+            last = maxIndex;
+        }
+
+        // Keep last point
+        theKeep[count - 1] = true;
+    }
+
     /**
      * A class to represent an individual item inside a graph series, including its key, group, value and bar/wedge shape.
      */
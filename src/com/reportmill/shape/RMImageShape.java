@@ -12,6 +12,7 @@ import snap.geom.Transform;
 import snap.gfx.*;
 import snap.util.*;
 import snap.web.WebURL;
+import java.util.Collection;
 
 /**
  * This class is a shape representation of an image.
@@ -213,6 +214,15 @@ public class RMImageShape extends RMRectShape {
         return prefH;
     }
 
+    /**
+     * Override to add key.
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        super.addReferencedKeys(aList);
+        RMKeyChain.addKeyPaths(getKey(), aList);
+    }
+
     /**
      * Report generation method.
      */
@@ -3,6 +3,8 @@
  */
 package com.reportmill.shape;
 import com.reportmill.base.*;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import snap.geom.Rect;
 import snap.gfx.*;
@@ -29,6 +31,9 @@ public class RMLabels extends RMParentShape {
     private final float DEFAULT_LABEL_WIDTH = 150;
     private final float DEFAULT_LABEL_HEIGHT = 90;
 
+    // Whether label children that don't reference keys are generated once and copied for every label
+    private static boolean  _stamping = true;
+
     /**
      * Creates a new labels template.
      */
@@ -213,6 +218,26 @@ public class RMLabels extends RMParentShape {
         setHeight(getLabelHeight() * _numberOfRows + _spacingHeight * (_numberOfRows - 1));
     }
 
+    /**
+     * Returns whether label children that don't reference keys (the static part of label) are generated once and
+     * copied for every label, instead of generated for every record.
+     */
+    public static boolean isStamping()  { return _stamping; }
+
+    /**
+     * Sets whether label children that don't reference keys are generated once and copied for every label.
+     */
+    public static void setStamping(boolean aValue)  { _stamping = aValue; }
+
+    /**
+     * Override to add sort keys.
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        super.addReferencedKeys(aList);
+        getGrouping().addKeyPaths(aList);
+    }
+
     /**
      * Report Generation.
      */
@@ -230,6 +255,15 @@ public class RMLabels extends RMParentShape {
         // Get label shape to be used as a template for added labels
         RMLabel label = getLabel();
 
+        // Get whether to stamp labels (copy static label children generated for first label) - not with listener
+        boolean stamp = isStamping() && anRptOwner.getListener() == null;
+        RMShape statics[] = null;
+
+        // Get label x & y for grid columns & rows
+        double labelX[] = new double[_numberOfColumns], labelY[] = new double[_numberOfRows];
+        for (int j = 0; j < _numberOfColumns; j++) labelX[j] = j * label.getWidth() + j * _spacingWidth;
+        for (int i = 0; i < _numberOfRows; i++) labelY[i] = i * label.getHeight() + i * _spacingHeight;
+
         // Top level group represents explicit page breaks, create shape for each page, set DataBearing object and fill
         RMParentShape page = null;
         for (int i = -1, j = -1, k = 0, kMax = group.size(); k < kMax; k++) {
@@ -249,18 +283,21 @@ public class RMLabels extends RMParentShape {
             // Get current loop object
             Object object = group.get(k);
 
-            // Add object to data bearing objects, do rpg, and remove
+            // Add object to data bearing objects, do rpg (with static children, if stamping), and remove
             anRptOwner.pushDataStack(object);
-            RMParentShape newLabel = (RMParentShape) anRptOwner.rpg(label, page);
+            RMParentShape newLabel = statics != null ? rpgLabel(anRptOwner, label, page, statics) :
+                    (RMParentShape) anRptOwner.rpg(label, page);
             anRptOwner.popDataStack();
 
+            // If stamping, get static children from first label (stop stamping if there are none)
+            if (stamp && statics == null)
+                stamp = (statics = getStaticRPGs(label, newLabel)) != null;
+
             // Add new label
             page.addChild(newLabel);
 
-            // Calculate x & y for new label and set
-            double x = j * label.getWidth() + j * _spacingWidth;
-            double y = i * label.getHeight() + i * _spacingHeight;
-            newLabel.setXY(x, y);
+            // Set x & y for new label
+            newLabel.setXY(labelX[j], labelY[i]);
         }
 
         // Make sure there's at least one page
@@ -274,6 +311,51 @@ public class RMLabels extends RMParentShape {
         return pages;
     }
 
+    /**
+     * Generates given label for current record (like rpgAll), using copies of given pre-generated static children.
+     */
+    private RMParentShape rpgLabel(ReportOwner anRptOwner, RMLabel aLabel, RMShape aParent, RMShape theStatics[])
+    {
+        RMParentShape clone = (RMParentShape) aLabel.rpgShape(anRptOwner, aParent);
+        aLabel.rpgBindings(anRptOwner, clone);
+        return (RMParentShape) aLabel.rpgChildren(anRptOwner, clone, theStatics);
+    }
+
+    /**
+     * Returns copies of the generated static children of given generated label (children that don't reference keys),
+     * with null for other children, or null if label has no static children or was generated differently.
+     */
+    private RMShape[] getStaticRPGs(RMLabel aLabel, RMParentShape aLabelRPG)
+    {
+        // If label generated different children (like paginated text), just return
+        if (aLabelRPG instanceof ReportOwner.ShapeList || aLabelRPG.getChildCount() != aLabel.getChildCount())
+            return null;
+
+        // Iterate over label children and copy generated child for static ones
+        RMShape statics[] = null;
+        for (int i = 0, iMax = aLabel.getChildCount(); i < iMax; i++) {
+            if (isStatic(aLabel.getChild(i))) {
+                if (statics == null) statics = new RMShape[iMax];
+                statics[i] = aLabelRPG.getChild(i).cloneDeep();
+            }
+        }
+
+        // Return statics
+        return statics;
+    }
+
+    /**
+     * Returns whether given label child generates the same for every record: it doesn't reference keys (or depend on
+     * sibling shapes, like a graph legend).
+     */
+    protected boolean isStatic(RMShape aShape)
+    {
+        if (aShape instanceof RMGraphLegend) return false;
+        List<String> keys = new ArrayList<>();
+        aShape.addReferencedKeys(keys);
+        return keys.isEmpty();
+    }
+
     /**
      * Paint labels shapes.
      */
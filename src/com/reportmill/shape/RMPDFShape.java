@@ -8,6 +8,7 @@ import snap.geom.Pos;
 import snap.geom.Rect;
 import snap.gfx.*;
 import snap.util.*;
+import java.util.Collection;
 
 /**
  * This class is a shape representation of a PDF page.
@@ -223,6 +224,15 @@ public class RMPDFShape extends RMRectShape {
         return ph;
     }
 
+    /**
+     * Override to add key.
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        super.addReferencedKeys(aList);
+        RMKeyChain.addKeyPaths(getKey(), aList);
+    }
+
     /**
      * Report generation method.
      */
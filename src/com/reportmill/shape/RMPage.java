@@ -301,8 +301,16 @@ public class RMPage extends RMParentShape {
     public void addChild(RMShape aChild, int anIndex)
     {
         // Add child normally
+        boolean wasChild = aChild.getParent() == this;
         super.addChild(aChild, anIndex);
 
+        // If new child and single layer has all other children (so they're already in layer order), just add to layer
+        RMPageLayer layer = getSelectedLayer();
+        if (!wasChild && getLayerCount() == 1 && layer != null && layer.getChildCount() == getChildCount() - 1) {
+            layer.addChild(aChild, anIndex);
+            return;
+        }
+
         // If there is a selected layer, add child to layer and reorder children
         if (getChildLayer(aChild) == null && getSelectedLayer() != null) {
             getSelectedLayer().addChild(aChild, Math.min(anIndex, getSelectedLayer().getChildCount()));
@@ -556,12 +564,14 @@ public class RMPage extends RMParentShape {
         // Create parts list
         ReportOwner.ShapeList pagesShape = new ReportOwner.ShapeList();
 
-        // Generate parts reports
+        // Generate parts reports in parallel (if allowed and parts don't make key assignments), otherwise do in loop
+        RMShape partRPGs[] = anRptOwner.isParallel(objects.size()) ? anRptOwner.rpgParallel(objects.size(),
+            (owner, index) -> rpgPart(owner, aParent, objects.get(index))) : null;
+
+        // Add parts reports
         for (int i = 0, iMax = objects.size(); i < iMax; i++) {
-            Object obj = objects.get(i);
-            anRptOwner.pushDataStack(obj);
-            RMParentShape prpg = (RMParentShape) super.rpgAll(anRptOwner, aParent);
-            anRptOwner.popDataStack();
+            RMParentShape prpg = (RMParentShape) (partRPGs != null ? partRPGs[i] :
+                rpgPart(anRptOwner, aParent, objects.get(i)));
             if (prpg instanceof ReportOwner.ShapeList) for (RMShape c : prpg.getChildArray()) pagesShape.addChild(c);
             else pagesShape.addChild(prpg);
         }
@@ -570,6 +580,17 @@ public class RMPage extends RMParentShape {
         return pagesShape;
     }
 
+    /**
+     * Returns a report page (or pages) for given dataset key object.
+     */
+    private RMShape rpgPart(ReportOwner anRptOwner, RMShape aParent, Object anObj)
+    {
+        anRptOwner.pushDataStack(anObj);
+        RMShape prpg = super.rpgAll(anRptOwner, aParent);
+        anRptOwner.popDataStack();
+        return prpg;
+    }
+
     /**
      * Override to handle pagination.
      */
@@ -3,6 +3,7 @@
  */
 package com.reportmill.shape;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import snap.geom.Point;
 import snap.geom.Rect;
@@ -566,6 +567,16 @@ public class RMParentShape extends RMShape implements PropChange.DoChange {
         }
     }
 
+    /**
+     * Override to add referenced keys of children.
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        super.addReferencedKeys(aList);
+        for (int i = 0, iMax = getChildCount(); i < iMax; i++)
+            getChild(i).addReferencedKeys(aList);
+    }
+
     /**
      * Generate report with report owner.
      */
@@ -581,12 +592,22 @@ public class RMParentShape extends RMShape implements PropChange.DoChange {
      * Generate report with report owner.
      */
     protected RMShape rpgChildren(ReportOwner anRptOwner, RMParentShape aParent)
+    {
+        return rpgChildren(anRptOwner, aParent, null);
+    }
+
+    /**
+     * Generate report with report owner, using copies of given pre-generated children (for non-null entries) instead
+     * of generating them again (for children that don't reference keys, like the static part of a label).
+     */
+    protected RMShape rpgChildren(ReportOwner anRptOwner, RMParentShape aParent, RMShape theChildRPGs[])
     {
         RMParentShape parent = aParent;
         ReportOwner.ShapeList slists[] = null;
         for (int i = 0, iMax = getChildCount(); i < iMax; i++) {
             RMShape child = getChild(i);
-            RMShape crpg = anRptOwner.rpg(child, aParent);
+            RMShape crpg = theChildRPGs != null && theChildRPGs[i] != null ? theChildRPGs[i].cloneDeep() :
+                    anRptOwner.rpg(child, aParent);
             if (crpg instanceof ReportOwner.ShapeList) {
                 if (slists == null) slists = new ReportOwner.ShapeList[iMax];
                 slists[i] = (ReportOwner.ShapeList) crpg;
@@ -1691,6 +1691,23 @@ public class RMShape implements Cloneable, RMTypes, Archivable, Key.GetSet {
         return null;
     }
 
+    /**
+     * Adds the key paths referenced by this shape (dataset key, bindings and URL) to given collection.
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        // Add dataset key
+        RMKeyChain.addKeyPaths(getDatasetKey(), aList);
+
+        // Add binding keys
+        for (int i = 0, iMax = getBindingCount(); i < iMax; i++)
+            RMKeyChain.addKeyPaths(getBinding(i).getKey(), aList);
+
+        // Add URL keys
+        if (getURL() != null && getURL().indexOf('@') >= 0)
+            new RMXString(getURL()).addKeyPaths(aList);
+    }
+
     /**
      * Returns the entity this shape should show in keys browser.
      */
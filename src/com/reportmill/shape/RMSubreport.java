@@ -9,6 +9,7 @@ import snap.geom.Shape;
 import snap.gfx.*;
 import snap.util.*;
 
+import java.util.Collection;
 import java.util.Objects;
 
 /**
@@ -59,17 +60,22 @@ public class RMSubreport extends RMRectShape {
             RMDocument document = getDocument().getSubreport(getSubreportName());
             RMPage page = document != null ? document.getPage(0) : null;
 
-            // If one page shape, get it (and move to upper left)
+            // If one page shape, get it (copy if doc is shared) and move to upper left
             if (page != null && page.getChildCount() == 1) {
                 _subreportShape = (RMParentShape) page.getChild(0);
+                if (document.isShared())
+                    _subreportShape = _subreportShape.cloneDeep();
                 _subreportShape.setXY(0, 0);
             }
 
-            // Otherwise if multiple page shapes, get shapes inside wrapper shape (not page)
+            // Otherwise if multiple page shapes, get shapes inside wrapper shape (not page) - copies if doc is shared
             else if (page != null && page.getChildCount() > 1) {
                 _subreportShape = new RMParentShape();
                 _subreportShape.setSize(page.getSize());
-                while (page.getChildCount() > 0)
+                if (document.isShared())
+                    for (int i = 0, iMax = page.getChildCount(); i < iMax; i++)
+                        _subreportShape.addChild(page.getChild(i).cloneDeep());
+                else while (page.getChildCount() > 0)
                     _subreportShape.addChild(page.getChild(0));
             }
         }
@@ -138,6 +144,16 @@ public class RMSubreport extends RMRectShape {
         return _coverFill = new GradientPaint(60, stops);
     }
 
+    /**
+     * Override to add keys of subreport shape.
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        super.addReferencedKeys(aList);
+        if (getSubreportShape() != null)
+            getSubreportShape().addReferencedKeys(aList);
+    }
+
     /**
      * Override to setReportMill in subreport shape and install.
      */
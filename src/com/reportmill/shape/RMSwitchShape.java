@@ -113,8 +113,9 @@ public class RMSwitchShape extends RMParentShape {
         if (shape == null)
             return null;
 
-        // Reset name? because this was screwed up (prior to 11/20/01?)
-        shape._version = aName;
+        // Reset name? because this was screwed up (prior to 11/20/01?) - only if needed, since templates can be shared
+        if (!aName.equals(shape._version))
+            shape._version = aName;
 
         // Return switch shape
         return shape;
@@ -253,6 +254,32 @@ public class RMSwitchShape extends RMParentShape {
         return super.rpgAll(anRptOwner, aParent);
     }
 
+    /**
+     * Override to add version key and keys of alternate versions (since any version can be used in report).
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        // Do normal version
+        super.addReferencedKeys(aList);
+
+        // Add version key
+        RMKeyChain.addKeyPaths(getVersionKey(), aList);
+
+        // Add keys of alternate versions
+        if (getAlternates() != null)
+            for (RMSwitchShape alt : getAlternates().values())
+                if (alt != this)
+                    alt.addReferencedKeysSuper(aList);
+    }
+
+    /**
+     * Adds referenced keys of this version only.
+     */
+    protected void addReferencedKeysSuper(Collection<String> aList)
+    {
+        super.addReferencedKeys(aList);
+    }
+
     /**
      * Standard clone implementation.
      */
@@ -380,6 +407,7 @@ public class RMSwitchShape extends RMParentShape {
                 String altKey = altElm.getAttributeValue("alt-key");
                 RMSwitchShape shape = (RMSwitchShape) anArchiver.fromXML(altElm, this);
                 shape._parent = null; // Bogus, this can go when shape unarchival stops setting this
+                shape._version = altKey;
                 getAlternates(true).put(altKey, shape);
             }
         }
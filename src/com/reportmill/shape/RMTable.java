@@ -4,6 +4,7 @@
 package com.reportmill.shape;
 import com.reportmill.base.RMGrouper;
 import com.reportmill.base.RMGrouping;
+import com.reportmill.base.RMKeyChain;
 import java.util.*;
 import snap.geom.Path2D;
 import snap.geom.Point;
@@ -455,6 +456,16 @@ public class RMTable extends RMParentShape {
         if (maxy > 0 && !MathUtils.equals(maxy, getChildLast().getMaxY())) repaint();
     }
 
+    /**
+     * Override to add filter key and grouping keys.
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        super.addReferencedKeys(aList);
+        RMKeyChain.addKeyPaths(getFilterKey(), aList);
+        getGrouper().addKeyPaths(aList);
+    }
+
     /**
      * Report generation for table.
      */
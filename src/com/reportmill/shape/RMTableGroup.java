@@ -334,6 +334,18 @@ public class RMTableGroup extends RMParentShape {
         child.setBounds(0, 0, getWidth(), getHeight());
     }
 
+    /**
+     * Override to add keys of tables that aren't currently installed as child.
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        super.addReferencedKeys(aList);
+        for (List<RMTable> tables : _tableMap.values())
+            for (RMTable table : tables)
+                if (table.getParent() != this)
+                    table.addReferencedKeys(aList);
+    }
+
     /**
      * Override to set main table to first child table.
      */
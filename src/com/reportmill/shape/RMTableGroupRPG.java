@@ -104,6 +104,15 @@ class RMTableGroupRPG extends RMTableRPG {
         return page;
     }
 
+    /**
+     * Override to return whether there are child tables for current table.
+     */
+    protected boolean hasChildTables()
+    {
+        List<RMTable> ctables = _tgroup.getChildTables(_table);
+        return ctables != null && ctables.size() > 0;
+    }
+
     /**
      * Override to add rows for child tables.
      */
@@ -4,6 +4,7 @@
 package com.reportmill.shape;
 import com.reportmill.base.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import snap.util.ListUtils;
 
 /**
@@ -38,6 +39,15 @@ public class RMTableRPG extends RMParentShape {
     // The preferred height of table
     double _prefHeight;
 
+    // The details rows generated ahead (in parallel) for current group
+    RowBuffer _rowBuffer;
+
+    // The min number of objects in group for generating its details rows in parallel (zero or less for never)
+    private static int  _parallelRowsThreshold = 256;
+
+    // Constants for number of details rows generated by each task
+    private static final int ROW_CHUNK_SIZE = 32;
+
     /**
      * Creates a new RMTableRPG for ReportOwner and Table.
      */
@@ -130,16 +140,24 @@ public class RMTableRPG extends RMParentShape {
         if (dataset == null)
             dataset = new ArrayList<>();
 
-        // Filter if needed
+        // If SQL dataset, get rows with filter, grouping order and top-N pushed into query where possible
+        RMGrouper grouper = aTable.getGrouper();
         String filterKey = aTable.getFilterKey();
-        if (filterKey != null && filterKey.length() > 0) {
-            RMKeyChain keyChain = RMKeyChain.getKeyChain(filterKey);
-            dataset = ListUtils.getFiltered(dataset, item -> RMKeyChain.getBoolValue(item, keyChain));
+        int orderedCount = grouper.getOrderedGroupingLimit();
+        if (dataset instanceof RMSQLDataset) {
+            RMSQLDataset sqlDataset = (RMSQLDataset) dataset;
+            RMSQLPlanner plan = sqlDataset.getPlan(grouper, filterKey);
+            dataset = sqlDataset.getRows(plan);
+            if (plan.isFilterPushed())
+                filterKey = null;
+            orderedCount = plan.getOrderedGroupingCount();
         }
 
+        // Filter if needed
+        dataset = RMKeyChainFilter.getFiltered(dataset, filterKey);
+
         // Do grouping
-        RMGrouper grouper = aTable.getGrouper();
-        RMGroup group = grouper.groupObjects(dataset);
+        RMGroup group = grouper.groupObjects(dataset, orderedCount);
 
         // Return
         return group;
@@ -167,6 +185,7 @@ public class RMTableRPG extends RMParentShape {
         // Create page, reset ivars, return
         RMTableRPG npage = _nextPage = createPage();
         npage._table = _table;
+        npage._rowBuffer = _rowBuffer;
         npage._page = _page + 1;
         npage._pageBreak = _pageBreak;
         npage._pageBreakPage = _pageBreakPage + 1;
@@ -234,8 +253,8 @@ public class RMTableRPG extends RMParentShape {
         }
 
         // Add details rows for group
-        int added = 0;
-        for (int i = 0, iMax = aGroup.size(); i < iMax; i++, added++) {
+        int start = getLastRowChildIndex(aGroup, theLastRow), added = start;
+        for (int i = start, iMax = aGroup.size(); i < iMax; i++, added++) {
             RMGroup childGroup = aGroup.getGroup(i);
 
             // Get parentRPG so we can reset if details row is present
@@ -267,6 +286,10 @@ public class RMTableRPG extends RMParentShape {
                     } else version = RMTableRow.VersionReprint;
                 }
 
+                // If no RowRPG, get row generated ahead (if group rows are generated in parallel)
+                if (rowRPG == null && version == null)
+                    rowRPG = getBufferedRow(aGroup, detailsRow, i);
+
                 // If no RowRPG, do normal row RPG
                 if (rowRPG == null) {
                     rowRPG = new RMTableRowRPG();
@@ -366,9 +389,6 @@ public class RMTableRPG extends RMParentShape {
                 group = new RMGroup.Running(aGroup, group, null);
             }
 
-            // If no header/details, then this row shouldn't do widow/orphan
-            if (headerRow == null && detailsRow == null) summaryRow.setNumberOfChildrenToStayWith(0);
-
             // Create filled Summary row
             RMTableRowRPG row = new RMTableRowRPG();
             row.rpgAll(_rptOwner, summaryRow, group, null);
@@ -386,6 +406,20 @@ public class RMTableRPG extends RMParentShape {
         return true;
     }
 
+    /**
+     * Returns the index of the child group of given group that is (or contains) the group of given last row, or 0 if
+     * none (so adding rows for new page can skip the child groups before it without walking them).
+     */
+    private static int getLastRowChildIndex(RMGroup aGroup, RMTableRowRPG theLastRow)
+    {
+        // Find last row group or ancestor whose parent is given group, and return its index (if it's really there)
+        RMGroup group = theLastRow != null ? theLastRow._group : null;
+        while (group != null && group.getParent() != aGroup)
+            group = group.getParent();
+        int index = group != null ? group.index() : -1;
+        return index >= 0 && aGroup.get(index) == group ? index : 0;
+    }
+
     /**
      * A hook to add rows for child tables (RMTableGroup).
      */
@@ -394,6 +428,40 @@ public class RMTableRPG extends RMParentShape {
         return true;
     }
 
+    /**
+     * Returns whether there are child tables for current table (RMTableGroup).
+     */
+    protected boolean hasChildTables()  { return false; }
+
+    /**
+     * Returns the details row generated ahead for given group child index (or null if rows of group aren't generated
+     * in parallel or row isn't available). Rows are generated in windows of chunks in parallel, then handed out here
+     * in the same order as they would be generated, so output is identical to generating them one by one.
+     */
+    RMTableRowRPG getBufferedRow(RMGroup aGroup, RMTableRow aRow, int anIndex)
+    {
+        // If buffer isn't for group, create new one (disabled if group rows shouldn't be generated in parallel)
+        RowBuffer buffer = _rowBuffer;
+        if (buffer == null || buffer._group != aGroup || buffer._row != aRow) {
+            boolean parallel = _parallelRowsThreshold > 0 && aGroup.size() >= _parallelRowsThreshold &&
+                    !hasChildTables() && _rptOwner.isParallel(aGroup.size() / ROW_CHUNK_SIZE);
+            buffer = _rowBuffer = new RowBuffer(aGroup, aRow, parallel);
+        }
+
+        // Return row from buffer
+        return buffer.getRow(_rptOwner, anIndex);
+    }
+
+    /**
+     * Returns the min number of objects in group for generating its details rows in parallel (zero or less for never).
+     */
+    public static int getParallelRowsThreshold()  { return _parallelRowsThreshold; }
+
+    /**
+     * Sets the min number of objects in group for generating its details rows in parallel (zero or less for never).
+     */
+    public static void setParallelRowsThreshold(int aValue)  { _parallelRowsThreshold = aValue; }
+
     /**
      * Adds a row to this TableRPG.
      */
@@ -418,7 +486,7 @@ public class RMTableRPG extends RMParentShape {
         // If summary row didn't fit, remove it and make previous child LastRow (return if none)
         if (aRow.isSummary()) {
             removeRow(aRow);
-            if (aRow._row.getNumberOfChildrenToStayWith() == 0) return false;
+            if (getNumberOfChildrenToStayWith(aRow._row) == 0) return false;
             if (aParentRPG.getChildRPGCount() > 0) _lastRow = (RMTableRowRPG) getChildLast();
             else return false;
         }
@@ -446,7 +514,7 @@ public class RMTableRPG extends RMParentShape {
     {
         // If parent has what it needs, return true
         int has = aParentRPG.getChildRPGCount() + aMod; // Mod might be -1 if there is a child we are planning to remove
-        int needs = aParentRPG._row != null ? aParentRPG._row.getNumberOfChildrenToStayWith() : 0;
+        int needs = aParentRPG._row != null ? getNumberOfChildrenToStayWith(aParentRPG._row) : 0;
         if (has >= needs)
             return true;
 
@@ -457,6 +525,25 @@ public class RMTableRPG extends RMParentShape {
         return tops;
     }
 
+    /**
+     * Returns the number of children given template row needs to stay with on page: summary rows with no header or
+     * details row for their grouping need none (they shouldn't do widow/orphan). Computed here instead of set in the
+     * template, since templates can be shared by concurrent reports (see RMTemplateCache).
+     */
+    int getNumberOfChildrenToStayWith(RMTableRow aRow)
+    {
+        // If summary row with no header or details row, return 0
+        String title = aRow.getTitle();
+        if (title.endsWith(" Summary")) {
+            String key = title.substring(0, title.length() - " Summary".length());
+            if (_table.getRow(key + " Header") == null && _table.getRow(key + " Details") == null)
+                return 0;
+        }
+
+        // Return row value
+        return aRow.getNumberOfChildrenToStayWith();
+    }
+
     /**
      * Removes a row from this TableRPG.
      */
@@ -613,4 +700,108 @@ public class RMTableRPG extends RMParentShape {
         return true;
     }
 
+    /**
+     * Details rows of a group generated ahead in parallel: a window of rows (for leaf child groups) is generated in
+     * chunks, each with a fork of report owner, and rows are handed out once (a row asked for again, like after it was
+     * moved to next page, is generated normally). Page reference shapes of a row are registered when it's handed out.
+     * If rows make key assignments, or assignments change while rows are buffered, remaining rows are done normally.
+     */
+    private static class RowBuffer {
+
+        // The group and details row
+        RMGroup  _group;
+        RMTableRow  _row;
+
+        // Whether rows are generated in parallel (false when disabled)
+        boolean  _parallel;
+
+        // The start index of window, the rows and page reference shapes of rows in window
+        int  _start;
+        RMTableRowRPG  _rows[];
+        List<RMShape>  _pageRefs[];
+
+        // The key assignments rows in window were generated with
+        Map  _assignments;
+
+        /** Creates a new buffer. */
+        RowBuffer(RMGroup aGroup, RMTableRow aRow, boolean isParallel)
+        {
+            _group = aGroup;
+            _row = aRow;
+            _parallel = isParallel;
+        }
+
+        /** Returns the row for given group child index (generating window if needed). */
+        RMTableRowRPG getRow(ReportOwner anRptOwner, int anIndex)
+        {
+            // If disabled, just return
+            if (!_parallel)
+                return null;
+
+            // If assignments changed since window was generated, disable and return
+            if (_rows != null && !RMKeyChain.getAssignments().equals(_assignments)) {
+                _parallel = false;
+                return null;
+            }
+
+            // If index not in window, generate window (if rows made key assignments, disable and return)
+            if (_rows == null || anIndex < _start || anIndex >= _start + _rows.length) {
+                if (!generateRows(anRptOwner, anIndex)) {
+                    _parallel = false;
+                    return null;
+                }
+            }
+
+            // Get row and clear it from buffer, so it's only used once
+            int index = anIndex - _start;
+            RMTableRowRPG row = _rows[index];
+            _rows[index] = null;
+
+            // Register row page reference shapes and return row
+            if (_pageRefs[index] != null) {
+                for (RMShape shape : _pageRefs[index])
+                    anRptOwner.addPageReferenceShape(shape);
+                _pageRefs[index] = null;
+            }
+            return row;
+        }
+
+        /** Generates window of rows from given index in parallel. Returns false if rows made key assignments. */
+        boolean generateRows(ReportOwner anRptOwner, int anIndex)
+        {
+            // Get window size and leaf child groups in window (child groups are gotten here, since views create them)
+            int size = Math.min(ROW_CHUNK_SIZE * 4 * ForkJoinPool.getCommonPoolParallelism(), _group.size() - anIndex);
+            RMGroup groups[] = new RMGroup[size];
+            for (int i = 0; i < size; i++) {
+                RMGroup group = _group.getGroup(anIndex + i);
+                if (group.isLeaf())
+                    groups[i] = group;
+            }
+
+            // Create window
+            RMTableRowRPG rows[] = new RMTableRowRPG[size];
+            List<RMShape> pageRefs[] = new List[size];
+            _start = anIndex;
+            _rows = rows;
+            _pageRefs = pageRefs;
+            _assignments = new HashMap(RMKeyChain.getAssignments());
+
+            // Generate rows in chunks (each with report owner fork) and return whether rows didn't make assignments
+            int chunkCount = (size + ROW_CHUNK_SIZE - 1) / ROW_CHUNK_SIZE;
+            return anRptOwner.rpgParallel(chunkCount, (owner, chunk) -> {
+                for (int i = chunk * ROW_CHUNK_SIZE, iMax = Math.min(i + ROW_CHUNK_SIZE, size); i < iMax; i++) {
+                    if (groups[i] == null) continue;
+                    rows[i] = new RMTableRowRPG();
+                    rows[i].rpgAll(owner, _row, groups[i], null);
+                    List<RMShape> refs = owner.getPageReferenceShapes();
+                    if (refs.size() > 0) {
+                        pageRefs[i] = new ArrayList<>(refs);
+                        refs.clear();
+                    }
+                }
+                return null;
+            }) != null;
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.shape;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import snap.util.*;
+
+/**
+ * This class writes and reads a compact binary form of a template (.rptb), which loads without XML text parsing:
+ * <p><blockquote><pre>
+ *   byte bytes[] = RMTemplateBinary.getBytes(template); // Or template.write("MyTemplate.rptb")
+ *   RMDocument template = RMDocument.getDoc(bytes); // RMArchiver reads binary templates from any source
+ * </pre></blockquote><p>
+ * The binary form holds the same archived elements as .rpt XML (so it round-trips losslessly with .rpt): each element
+ * is a length-prefixed record, element names, attribute names and values go through a string table (each distinct
+ * string is written once, so element names become small ids for class lookup), and resources (like embedded images)
+ * are raw bytes instead of ASCII85 text.
+ */
+public class RMTemplateBinary {
+
+    // The string table (write) or string list (read)
+    private Map<String,Integer>  _stringIds;
+    private List<String>  _strings;
+
+    // The buffer (read)
+    private ByteBuffer  _buf;
+
+    // Constants for file header
+    private static final int MAGIC = 0x524D5442; // "RMTB"
+    private static final int VERSION = 1;
+
+    // Constants for string tags
+    private static final byte NULL = 0, STRING_DEF = 1, STRING_REF = 2;
+
+    /**
+     * Returns whether given bytes are a binary template.
+     */
+    public static boolean canRead(byte theBytes[])
+    {
+        return theBytes != null && theBytes.length >= 8 && ByteBuffer.wrap(theBytes).getInt(0) == MAGIC;
+    }
+
+    /**
+     * Returns the binary template bytes for given document.
+     */
+    public static byte[] getBytes(RMDocument aDoc)
+    {
+        // Get archived xml and resources (like RMDocument.getXML(), without resources encoded as elements)
+        aDoc.layoutDeep();
+        aDoc.resolvePageReferences();
+        RMArchiver archiver = new RMArchiver();
+        XMLElement xml = archiver.toXML(aDoc);
+
+        // Write header, root element and resources
+        RecordOutputStream bytes = new RecordOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        RMTemplateBinary writer = new RMTemplateBinary();
+        writer._stringIds = new HashMap<>();
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writer.writeElement(out, bytes, xml);
+            out.writeInt(archiver.getResources().size());
+            for (XMLArchiver.Resource resource : archiver.getResources()) {
+                writer.writeString(out, resource.getName());
+                out.writeInt(resource.getBytes().length);
+                out.write(resource.getBytes());
+            }
+        }
+        catch (IOException e) { throw new RuntimeException(e); }
+
+        // Return bytes
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the archived xml (root element) from given binary template bytes and adds resources to given archiver.
+     */
+    public static XMLElement readXML(byte theBytes[], XMLArchiver anArchiver)
+    {
+        // Check header
+        ByteBuffer buf = ByteBuffer.wrap(theBytes);
+        if (buf.getInt() != MAGIC)
+            throw new RuntimeException("RMTemplateBinary.readXML: Not a binary template");
+        int version = buf.getInt();
+        if (version > VERSION)
+            throw new RuntimeException("RMTemplateBinary.readXML: Unsupported version: " + version);
+
+        // Read root element and resources
+        RMTemplateBinary reader = new RMTemplateBinary();
+        reader._strings = new ArrayList<>();
+        reader._buf = buf;
+        try {
+            XMLElement xml = reader.readElement();
+            for (int i = 0, iMax = buf.getInt(); i < iMax; i++) {
+                String name = reader.readString();
+                byte bytes[] = new byte[buf.getInt()];
+                buf.get(bytes);
+                anArchiver.addResource(bytes, name);
+            }
+            return xml;
+        }
+
+        // Complain if truncated or corrupt
+        catch (RuntimeException e) { throw new RuntimeException("RMTemplateBinary.readXML: Corrupt template", e); }
+    }
+
+    /**
+     * Writes an element record: length, name, value, attributes and child elements.
+     */
+    private void writeElement(DataOutputStream out, RecordOutputStream theBytes, XMLElement anElement) throws IOException
+    {
+        // Write placeholder length and remember start
+        out.writeInt(0);
+        int start = theBytes.size();
+
+        // Write name and value
+        writeString(out, anElement.getFullName());
+        writeString(out, anElement.getValue());
+
+        // Write attributes
+        out.writeInt(anElement.getAttributeCount());
+        for (int i = 0, iMax = anElement.getAttributeCount(); i < iMax; i++) {
+            XMLAttribute attr = anElement.getAttribute(i);
+            writeString(out, attr.getFullName());
+            writeString(out, attr.getValue());
+        }
+
+        // Write child elements
+        out.writeInt(anElement.getElementCount());
+        for (int i = 0, iMax = anElement.getElementCount(); i < iMax; i++)
+            writeElement(out, theBytes, anElement.getElement(i));
+
+        // Set length
+        theBytes.setInt(start - 4, theBytes.size() - start);
+    }
+
+    /**
+     * Reads an element record.
+     */
+    private XMLElement readElement()
+    {
+        // Read length and remember end
+        int length = _buf.getInt();
+        int end = _buf.position() + length;
+
+        // Read name and value
+        XMLElement xml = new XMLElement();
+        String name = readString();
+        if (name.indexOf(':') > 0) xml.setFullName(name);
+        else xml.setName(name);
+        xml.setValue(readString());
+
+        // Read attributes
+        for (int i = 0, iMax = _buf.getInt(); i < iMax; i++) {
+            String attrName = readString();
+            xml.addAttribute(new XMLAttribute(attrName, readString()));
+        }
+
+        // Read child elements
+        for (int i = 0, iMax = _buf.getInt(); i < iMax; i++)
+            xml.addElement(readElement());
+
+        // Check length and return
+        if (_buf.position() != end)
+            throw new IllegalStateException("Element length mismatch: " + name);
+        return xml;
+    }
+
+    /**
+     * Writes a string (string table reference if already written).
+     */
+    private void writeString(DataOutputStream out, String aString) throws IOException
+    {
+        // Handle null
+        if (aString == null) {
+            out.writeByte(NULL);
+            return;
+        }
+
+        // Handle string already written
+        Integer id = _stringIds.get(aString);
+        if (id != null) {
+            out.writeByte(STRING_REF);
+            out.writeInt(id);
+            return;
+        }
+
+        // Handle new string: add to string table and write UTF-8 bytes
+        _stringIds.put(aString, _stringIds.size());
+        byte bytes[] = aString.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(STRING_DEF);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string.
+     */
+    private String readString()
+    {
+        byte tag = _buf.get();
+        switch (tag) {
+            case NULL: return null;
+            case STRING_REF: return _strings.get(_buf.getInt());
+            case STRING_DEF: {
+                int length = _buf.getInt();
+                String str = new String(_buf.array(), _buf.position(), length, StandardCharsets.UTF_8);
+                _buf.position(_buf.position() + length);
+                _strings.add(str);
+                return str;
+            }
+            default: throw new IllegalStateException("Unknown string tag: " + tag);
+        }
+    }
+
+    /**
+     * A byte array output stream that can set an int at a given position (for record lengths).
+     */
+    private static class RecordOutputStream extends ByteArrayOutputStream {
+
+        /** Sets an int (big-endian) at given position. */
+        void setInt(int aPos, int aValue)
+        {
+            buf[aPos] = (byte) (aValue >>> 24);
+            buf[aPos + 1] = (byte) (aValue >>> 16);
+            buf[aPos + 2] = (byte) (aValue >>> 8);
+            buf[aPos + 3] = (byte) aValue;
+        }
+    }
+}
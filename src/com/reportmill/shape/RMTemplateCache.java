@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package com.reportmill.shape;
+import java.util.*;
+import snap.web.*;
+
+/**
+ * This class is a process-wide cache of loaded templates, so that many concurrent generateReport() calls for the
+ * same template file share one parse (and one set of shape instances). Entries are keyed by template URL and
+ * reloaded when the source modified time changes (a template keeps the subreports it was loaded with, so a changed
+ * subreport is picked up when the template changes or the cache is cleared).
+ *
+ * Cached templates are shared read-only across threads: they are marked shared (see RMDocument.isShared()) and the
+ * state report generation would otherwise resolve lazily in the template (subreports, from this cache, and the
+ * datasource dataset and schema) is resolved before they are shared. Report generation code must not write to
+ * template shapes (per-report state like table row stay-with is computed in RPG objects instead). Callers that want
+ * to edit a template should use RMDocument.getDoc() instead. Entries are evicted
+ * least-recently-used first once there are more than the max entry count.
+ */
+public class RMTemplateCache {
+
+    // The entries by URL string, in access order
+    private LinkedHashMap<String,Entry>  _entries = new LinkedHashMap<>(16, .75f, true);
+
+    // The max number of entries
+    private int  _maxEntryCount;
+
+    // The hit, miss and eviction counts
+    private long  _hitCount, _missCount, _evictionCount;
+
+    // The shared cache
+    private static RMTemplateCache  _shared = new RMTemplateCache(256);
+
+    /**
+     * Creates a new cache with given max number of entries.
+     */
+    public RMTemplateCache(int aMaxEntryCount)
+    {
+        _maxEntryCount = aMaxEntryCount;
+    }
+
+    /**
+     * Returns the shared cache.
+     */
+    public static RMTemplateCache getShared()  { return _shared; }
+
+    /**
+     * Returns the max number of entries.
+     */
+    public synchronized int getMaxEntryCount()  { return _maxEntryCount; }
+
+    /**
+     * Sets the max number of entries.
+     */
+    public synchronized void setMaxEntryCount(int aValue)
+    {
+        _maxEntryCount = aValue;
+        evict();
+    }
+
+    /**
+     * Returns the number of entries.
+     */
+    public synchronized int getEntryCount()  { return _entries.size(); }
+
+    /**
+     * Returns the number of requests satisfied by an already loaded template.
+     */
+    public synchronized long getHitCount()  { return _hitCount; }
+
+    /**
+     * Returns the number of requests that required a load.
+     */
+    public synchronized long getMissCount()  { return _missCount; }
+
+    /**
+     * Returns the number of entries evicted to stay under max entry count.
+     */
+    public synchronized long getEvictionCount()  { return _evictionCount; }
+
+    /**
+     * Returns the shared template for given source (URL, file, path string, etc.), loading it if not already loaded
+     * or if source has been modified since. Sources without a file (like bytes) are loaded every time.
+     */
+    public RMDocument getDoc(Object aSource)
+    {
+        // If source is a document, just return it
+        if (aSource instanceof RMDocument) return (RMDocument) aSource;
+
+        // Get URL and file (if no file, just load)
+        WebURL url = WebURL.getURL(aSource);
+        WebFile file = url != null ? url.getFile() : null;
+        if (file == null)
+            return load(aSource);
+
+        // Reload file to get current ModTime (and clear any stale bytes)
+        file.reload();
+        String key = url.getString();
+        long modTime = file.getModTime();
+
+        // Get entry for key (create and add if missing or if source was modified)
+        Entry entry;
+        synchronized (this) {
+            entry = _entries.get(key);
+            if (entry == null || entry._modTime != modTime)
+                _entries.put(key, entry = new Entry(modTime));
+        }
+
+        // Load template if needed (other threads asking for same template wait here instead of loading again)
+        boolean hit;
+        synchronized (entry) {
+            hit = entry._doc != null;
+            if (!hit) {
+                try { entry._doc = load(url); }
+                catch (RuntimeException e) {
+                    synchronized (this) { _entries.remove(key, entry); }
+                    throw e;
+                }
+            }
+        }
+
+        // Update metrics and evict if needed
+        synchronized (this) {
+            if (hit) _hitCount++;
+            else {
+                _missCount++;
+                evict();
+            }
+        }
+
+        // Return template
+        return entry._doc;
+    }
+
+    /**
+     * Loads a shared template for given source: marks it shared and resolves its subreports and datasource dataset.
+     */
+    private static RMDocument load(Object aSource)
+    {
+        RMDocument doc = new RMArchiver().getDoc(aSource);
+        doc._shared = true;
+        resolveSubreports(doc);
+        if (doc.getDataSource() != null)
+            doc.getDataSource().getDataset();
+        return doc;
+    }
+
+    /**
+     * Resolves the subreport shapes of given shape and its descendants (so they aren't loaded lazily while shared).
+     */
+    private static void resolveSubreports(RMShape aShape)
+    {
+        if (aShape instanceof RMSubreport)
+            ((RMSubreport) aShape).getSubreportShape();
+        for (int i = 0, iMax = aShape.getChildCount(); i < iMax; i++)
+            resolveSubreports(aShape.getChild(i));
+    }
+
+    /**
+     * Removes entries least-recently-used first until there are no more than max entry count.
+     */
+    private void evict()
+    {
+        for (Iterator<Entry> iter = _entries.values().iterator(); _entries.size() > _maxEntryCount; ) {
+            iter.next();
+            iter.remove();
+            _evictionCount++;
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear()
+    {
+        _entries.clear();
+    }
+
+    /**
+     * Returns a string representation of cache (with metrics).
+     */
+    public String toString()
+    {
+        return String.format("RMTemplateCache { Entries=%d, MaxEntries=%d, Hits=%d, Misses=%d, Evictions=%d }",
+                getEntryCount(), getMaxEntryCount(), getHitCount(), getMissCount(), getEvictionCount());
+    }
+
+    /**
+     * An entry in the cache: a template and the source modified time it was loaded for.
+     */
+    private static class Entry {
+
+        // The source modified time
+        long  _modTime;
+
+        // The template (null until loaded)
+        RMDocument  _doc;
+
+        /** Creates a new entry for source modified time. */
+        Entry(long aModTime)  { _modTime = aModTime; }
+    }
+}
@@ -814,6 +814,15 @@ public class RMTextShape extends RMRectShape {
         return Math.ceil(getMarginTop() + ph + getMarginBottom());
     }
 
+    /**
+     * Override to add text keys.
+     */
+    protected void addReferencedKeys(Collection<String> aList)
+    {
+        super.addReferencedKeys(aList);
+        getXString().addKeyPaths(aList);
+    }
+
     /**
      * Generate report.
      */
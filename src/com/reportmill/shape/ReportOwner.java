@@ -4,13 +4,20 @@
 package com.reportmill.shape;
 import com.reportmill.base.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 import snap.util.*;
 import snap.web.WebURL;
 
 /**
  * A base class that loads and runs reports.
+ *
+ * Independent parts of a report (template pages and dataset key pages) can be generated in parallel, each with a fork
+ * of the report owner (see rpgParallel()). Parts share the template, so shape report generation must not write to
+ * template shapes (or cache state in them lazily). Subclasses with state that changes during report generation should
+ * override fork() to copy it (or isParallel() to return false).
  */
-public class ReportOwner implements RMKeyChain.Get {
+public class ReportOwner implements RMKeyChain.Get, Cloneable {
 
     // The template
     RMDocument _template;
@@ -36,6 +43,12 @@ public class ReportOwner implements RMKeyChain.Get {
     // Provides a hook for didFillShape notification
     ReportMill.Listener _listener;
 
+    // Whether parallel generation was abandoned because parts make key assignments
+    boolean _parallelFailed;
+
+    // Whether to generate independent report parts in parallel
+    private static boolean  _parallelParts = true;
+
     /**
      * Returns the template.
      */
@@ -93,6 +106,14 @@ public class ReportOwner implements RMKeyChain.Get {
         _paginate = aFlag;
     }
 
+    /**
+     * Returns the listener for didFillShape notification (or null).
+     */
+    public ReportMill.Listener getListener()
+    {
+        return _listener;
+    }
+
     /**
      * Returns the model object.
      */
@@ -186,6 +207,79 @@ public class ReportOwner implements RMKeyChain.Get {
         return rpg;
     }
 
+    /**
+     * Returns whether independent report parts (template pages and dataset key pages) are generated in parallel.
+     */
+    public static boolean isParallelParts()  { return _parallelParts; }
+
+    /**
+     * Sets whether independent report parts (template pages and dataset key pages) are generated in parallel.
+     */
+    public static void setParallelParts(boolean aValue)  { _parallelParts = aValue; }
+
+    /**
+     * Returns whether given number of report parts should be generated in parallel: parallel parts is on, there are
+     * multiple parts and cores, no listener (which expects shapes in order) and no parts have made key assignments.
+     */
+    public boolean isParallel(int aCount)
+    {
+        return _parallelParts && aCount > 1 && ForkJoinPool.getCommonPoolParallelism() > 1 && _listener == null &&
+                !_parallelFailed;
+    }
+
+    /**
+     * Generates given number of report parts on the common ForkJoinPool with given function (called with a fork of
+     * this report owner and part index) and returns them in order, after adding their page reference shapes in order.
+     * Each part sees the key assignments of the calling thread (as a copy). Returns null if any part makes a key
+     * assignment, since later parts could depend on it, so caller can generate parts one after another instead.
+     */
+    public RMShape[] rpgParallel(int aCount, BiFunction<ReportOwner,Integer,RMShape> aFunc)
+    {
+        // Create tasks for parts and run
+        Map assignments = RMKeyChain.getAssignments();
+        List<PartTask> tasks = new ArrayList<>(aCount);
+        for (int i = 0; i < aCount; i++)
+            tasks.add(new PartTask(fork(), i, aFunc, new HashMap(assignments)));
+        ForkJoinTask.invokeAll(tasks);
+
+        // If any part made key assignments, mark parallel failed and return null
+        for (PartTask task : tasks) {
+            if (!task._assignments.equals(assignments)) {
+                _parallelFailed = true;
+                return null;
+            }
+        }
+
+        // Add parts page reference shapes and get parts (in order)
+        RMShape parts[] = new RMShape[aCount];
+        for (int i = 0; i < aCount; i++) {
+            PartTask task = tasks.get(i);
+            for (RMShape shape : task._owner.getPageReferenceShapes())
+                addPageReferenceShape(shape);
+            parts[i] = task._part;
+        }
+
+        // Return parts
+        return parts;
+    }
+
+    /**
+     * Returns a copy of this report owner for generating a report part on another thread: it shares the template and
+     * model, but has its own copy of data stack and its own page reference shapes.
+     */
+    protected ReportOwner fork()
+    {
+        // Do normal clone
+        ReportOwner fork;
+        try { fork = (ReportOwner) super.clone(); }
+        catch (CloneNotSupportedException e) { throw new RuntimeException(e); }
+
+        // Copy data stack and create new page reference shapes list
+        fork._dataStack = new ArrayList(_dataStack);
+        fork._pageRefShapes = new ArrayList();
+        return fork;
+    }
+
     /**
      * Returns the list of page reference shapes.
      */
@@ -336,6 +430,40 @@ public class ReportOwner implements RMKeyChain.Get {
         return null;
     }
 
+    /**
+     * A task to generate a report part with a fork of report owner.
+     */
+    private static class PartTask extends RecursiveAction {
+
+        // The report owner fork, part index and function to generate part
+        ReportOwner  _owner;
+        int  _index;
+        BiFunction<ReportOwner,Integer,RMShape>  _func;
+
+        // The key assignments for part (a copy of the assignments of thread that started generation)
+        Map  _assignments;
+
+        // The generated part
+        RMShape  _part;
+
+        /** Creates a new task. */
+        PartTask(ReportOwner anOwner, int anIndex, BiFunction<ReportOwner,Integer,RMShape> aFunc, Map theAssignments)
+        {
+            _owner = anOwner;
+            _index = anIndex;
+            _func = aFunc;
+            _assignments = theAssignments;
+        }
+
+        /** Generates part with key assignments. */
+        protected void compute()
+        {
+            Map oldAssignments = RMKeyChain.setAssignments(_assignments);
+            try { _part = _func.apply(_owner, _index); }
+            finally { RMKeyChain.setAssignments(oldAssignments); }
+        }
+    }
+
     /**
      * A shape class to represent multiple pages of shapes.
      */
@@ -3,6 +3,8 @@
  */
 package snap.util;
 
+import java.lang.invoke.*;
+import java.lang.reflect.Constructor;
 import java.util.*;
 
 import snap.web.WebURL;
@@ -48,6 +50,9 @@ public class XMLArchiver {
     // The map of classes for unarchival
     private Map<String,Class> _classMap;
 
+    // The classes resolved for element names (and type-name keys), with names that have no class as Void.class
+    private Map<String,Class> _classes = new HashMap<>();
+
     // The stack of parents
     private Deque _parentStack = new ArrayDeque();
 
@@ -357,6 +362,22 @@ public class XMLArchiver {
      * Returns the class for a given element name.
      */
     public Class getClass(String aName)
+    {
+        // Get class from resolved classes (if found, just return)
+        Class cls = _classes.get(aName);
+        if (cls != null)
+            return cls != Void.class ? cls : null;
+
+        // Resolve class from class map, add to resolved classes and return
+        cls = getClassFromMap(aName);
+        _classes.put(aName, cls != null ? cls : Void.class);
+        return cls;
+    }
+
+    /**
+     * Returns the class for a given element name from class map (loading class if map has class name string).
+     */
+    protected Class getClassFromMap(String aName)
     {
         // Get class from map (if found, just return)
         Object clss = getClassMap().get(aName);
@@ -366,9 +387,7 @@ public class XMLArchiver {
         // Load class from string
         if (clss != null) try {
             ClassLoader classLoader = getClass().getClassLoader();
-            Class c2 = Class.forName(clss.toString(), true, classLoader);
-            getClassMap().put(aName, c2);
-            return c2;
+            return Class.forName(clss.toString(), true, classLoader);
         }
 
         // Catch exceptions - print stack and return null
@@ -414,13 +433,30 @@ public class XMLArchiver {
      */
     protected Object newInstance(Class aClass)
     {
-        try {
-            return aClass.newInstance();
-        } catch (InstantiationException | IllegalAccessException e) {
-            throw new RuntimeException(e);
-        }
+        MethodHandle constructor = _constructors.get(aClass);
+        try { return (Object) constructor.invokeExact(); }
+        catch (RuntimeException | Error e) { throw e; }
+        catch (Throwable e) { throw new RuntimeException(e); }
     }
 
+    /**
+     * The no-arg constructors of unarchived classes, as method handles that return Object (looked up once per class).
+     */
+    private static ClassValue<MethodHandle> _constructors = new ClassValue<MethodHandle>() {
+        protected MethodHandle computeValue(Class<?> aClass)
+        {
+            try {
+                Constructor constructor = aClass.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                MethodHandle handle = MethodHandles.lookup().unreflectConstructor(constructor);
+                return handle.asType(MethodType.methodType(Object.class));
+            }
+            catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+                throw new RuntimeException("XMLArchiver: Can't create instance of class: " + aClass.getName(), e);
+            }
+        }
+    };
+
     /**
      * Returns a reference id for the given object (used in archival).
      */